@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.luckykuang.transaction.TransactionApplication;
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.entity.UserBatch;
+import com.luckykuang.transaction.service.UserService;
+import com.luckykuang.transaction.support.WriteMode;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程事务写入压测，使用内嵌H2(MySQL模式)
+ * 每组参数启动一次Spring容器，每次调用都是完整的一次导入：删除全部数据，再多线程写入payloadSize条数据
+ * chunkSize为0时使用自适应分片，poolSize为线程池大小，parallelism为单次事务的子线程数
+ * columnar为true时传入按列存储的 {@link UserBatch}，与接口反序列化得到的数据一致，否则传入ArrayList
+ * @author luckykuang
+ * @date 2023/11/17 15:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class SaveUsersBenchmark {
+
+    @Param({"10000", "100000"})
+    private int payloadSize;
+    @Param({"0", "1000"})
+    private int chunkSize;
+    @Param({"8"})
+    private int poolSize;
+    @Param({"4", "8"})
+    private int parallelism;
+    @Param({"SIMPLE", "BATCH", "LOAD_DATA"})
+    private WriteMode writeMode;
+    @Param({"INVOKE_ALL", "SUBMIT", "COMPLETABLE_FUTURE", "STREAM"})
+    private String strategy;
+    @Param({"false", "true"})
+    private boolean columnar;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private List<User> users;
+    private byte[] ndjson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new SpringApplicationBuilder(TransactionApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.driver-class-name=org.h2.Driver",
+                        "spring.datasource.url=jdbc:h2:mem:benchmark;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                        "spring.datasource.username=sa",
+                        "spring.datasource.password=",
+                        "spring.datasource.hikari.maximum-pool-size=" + (parallelism + 2),
+                        "spring.sql.init.mode=always",
+                        "spring.sql.init.schema-locations=classpath:schema-h2.sql",
+                        "transaction.parallelism=" + parallelism,
+                        "transaction.chunk.fixed-size=" + chunkSize,
+                        "transaction.executor.pool-size=" + poolSize,
+                        "transaction.cache.enabled=false",
+                        "logging.level.com.luckykuang=warn")
+                .run();
+        userService = context.getBean(UserService.class);
+        users = columnar ? new UserBatch() : new ArrayList<>(payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            User user = new User();
+            user.setName("user-" + i);
+            user.setAge(18 + i % 60);
+            user.setGender(i % 2 == 0 ? "男" : "女");
+            users.add(user);
+        }
+        ObjectMapper objectMapper = context.getBean(ObjectMapper.class);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (User user : users) {
+            objectMapper.writeValue(outputStream, user);
+            outputStream.write('\n');
+        }
+        ndjson = outputStream.toByteArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void save() {
+        CompletableFuture<Void> future = switch (strategy) {
+            case "INVOKE_ALL" -> userService.saveUsersByInvokeAll(users, writeMode);
+            case "SUBMIT" -> userService.saveUsersBySubmit(users, writeMode);
+            case "COMPLETABLE_FUTURE" -> userService.saveUsersByCompletableFuture(users, writeMode);
+            case "STREAM" -> userService.saveUsersByStream(new ByteArrayInputStream(ndjson), writeMode);
+            default -> throw new IllegalArgumentException(strategy);
+        };
+        future.join();
+    }
+}
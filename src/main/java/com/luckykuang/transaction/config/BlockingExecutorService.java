@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.config;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提交任务时按许可限流的线程池
+ * 许可数 = 底层线程池能容纳的任务数(线程数+阻塞队列数)，许可用完时提交任务的线程阻塞等待，任务执行结束后归还许可，
+ * 底层线程池永远不会触发拒绝策略。
+ * 注意：不要在本线程池的任务中再向本线程池提交任务并等待，许可用完时会相互等待
+ * @author luckykuang
+ * @date 2023/11/14 9:40
+ */
+public class BlockingExecutorService extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final Timer submitWait;
+
+    public BlockingExecutorService(ExecutorService delegate, int maxInFlight, Timer submitWait) {
+        this.delegate = delegate;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.permits = new Semaphore(this.maxInFlight, true);
+        this.submitWait = submitWait;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long start = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("等待提交任务时被中断", e);
+        } finally {
+            submitWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 正在执行及等待执行的任务数
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * 等待提交任务的线程数
+     */
+    public int getBlockedSubmitters() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -16,43 +16,179 @@
 
 package com.luckykuang.transaction.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 
+import javax.sql.DataSource;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * 子线程线程池配置
+ * 提交任务超过(线程数+阻塞队列数)时阻塞提交的线程，不会抛出拒绝执行的异常，参见 {@link BlockingExecutorService}
+ * transaction.executor.mode=PLATFORM：固定大小的平台线程池
+ * transaction.executor.mode=VIRTUAL：每个任务一个虚拟线程(需要JDK21运行)，同时执行的任务数按数据库连接数限制，
+ *      JDBC阻塞等待时不再占用平台线程
+ * 线程池指标以executor.*(tag name=transaction)注册到Micrometer
  * @author luckykuang
  * @date 2023/11/7 11:32
  */
 @Slf4j
+@Configuration
 public class ExecutorConfig {
     private static final int FULL_PROCESSORS = Runtime.getRuntime().availableProcessors();
-    private static volatile ExecutorService executorService;
-    private ExecutorConfig(){}
-
-    public static ExecutorService getThreadPool() {
-        if (executorService == null){
-            synchronized (ExecutorConfig.class){
-                if (executorService == null){
-                    executorService =  newThreadPool();
-                }
+    private static final String EXECUTOR_NAME = "transaction";
+    private static final String COORDINATOR_NAME = "transaction-coordinator";
+    private static final String JOB_NAME = "transaction-job";
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService transactionExecutor(TransactionProperties transactionProperties, DataSource dataSource,
+                                               MeterRegistry meterRegistry) {
+        TransactionProperties.Executor executor = transactionProperties.getExecutor();
+        if (executor.getMode() == TransactionProperties.ExecutorMode.VIRTUAL) {
+            ExecutorService virtualThreadPool = newVirtualThreadPool();
+            if (virtualThreadPool != null) {
+                int maxConcurrency = executor.getMaxConcurrency() > 0
+                        ? executor.getMaxConcurrency() : maxConnections(dataSource);
+                log.info("虚拟线程，最大并发数：" + maxConcurrency);
+                ExecutorService limited = new ConcurrencyLimitedExecutorService(virtualThreadPool, maxConcurrency);
+                return blocking(ExecutorServiceMetrics.monitor(meterRegistry, limited, EXECUTOR_NAME),
+                        maxConcurrency + queueCapacity(executor), meterRegistry);
+            }
+            log.warn("当前JDK不支持虚拟线程，使用平台线程池");
+        }
+        return newThreadPool(executor, maxConnections(dataSource), meterRegistry);
+    }
+
+    /**
+     * 主线程线程池：执行异步导入时的主线程逻辑(前置操作、提交子线程、等待并统一提交)，调用方线程立即返回
+     * 主线程会阻塞等待子线程，不能与子线程共用一个线程池，否则许可被主线程占满时会相互等待
+     * 超过线程数的导入在队列中排队
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService transactionCoordinator(TransactionProperties transactionProperties, MeterRegistry meterRegistry) {
+        TransactionProperties.Executor executor = transactionProperties.getExecutor();
+        if (executor.getMode() == TransactionProperties.ExecutorMode.VIRTUAL) {
+            ExecutorService virtualThreadPool = newVirtualThreadPool();
+            if (virtualThreadPool != null) {
+                return ExecutorServiceMetrics.monitor(meterRegistry, virtualThreadPool, COORDINATOR_NAME);
             }
         }
-        return executorService;
+        int poolSize = Math.max(1, executor.getCoordinatorPoolSize());
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        return ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, COORDINATOR_NAME);
+    }
+
+    /**
+     * 后台导入任务线程池：每个线程就是一个导入的主线程，线程数即同时执行的导入数
+     * 按任务而不是按子线程限流，多个大批量导入不会同时抢占子线程和连接，排队数超过上限时直接拒绝
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService transactionJobExecutor(TransactionProperties transactionProperties, MeterRegistry meterRegistry) {
+        TransactionProperties.Job job = transactionProperties.getJob();
+        int poolSize = Math.max(1, job.getMaxConcurrent());
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, job.getQueueCapacity())),
+                new ThreadPoolExecutor.AbortPolicy());
+        return ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, JOB_NAME);
     }
 
-    private static ExecutorService newThreadPool(){
-        int corePool = Math.max(4, FULL_PROCESSORS);
+    /**
+     * 提交任务时按(线程数+阻塞队列数)限流，超出时阻塞提交的线程，AbortPolicy只作为兜底不会被触发
+     */
+    private static ExecutorService newThreadPool(TransactionProperties.Executor executor, int maxConnections,
+                                                 MeterRegistry meterRegistry){
+        int corePool = executor.getPoolSize() > 0 ? executor.getPoolSize() : maxConnections;
+        int queueCapacity = queueCapacity(executor);
         log.info("线程数量：" + corePool);
-        return new ThreadPoolExecutor(
+        Counter rejected = Counter.builder("executor.rejected")
+                .description("被拒绝的任务数")
+                .tag("name", EXECUTOR_NAME)
+                .register(meterRegistry);
+        RejectedExecutionHandler abortPolicy = new ThreadPoolExecutor.AbortPolicy();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
                 corePool,
                 corePool,
                 0L,
                 TimeUnit.SECONDS,
-                new LinkedBlockingDeque<>(FULL_PROCESSORS * 100),
-                new ThreadPoolExecutor.AbortPolicy());
+                new LinkedBlockingDeque<>(queueCapacity),
+                (runnable, pool) -> {
+                    rejected.increment();
+                    abortPolicy.rejectedExecution(runnable, pool);
+                });
+        // 线程池活跃线程数、队列长度、任务执行耗时及任务在队列中的等待耗时(executor.idle)
+        return blocking(ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, EXECUTOR_NAME),
+                corePool + queueCapacity, meterRegistry);
+    }
+
+    private static ExecutorService blocking(ExecutorService delegate, int maxInFlight, MeterRegistry meterRegistry){
+        Timer submitWait = Timer.builder("executor.submit.wait")
+                .description("提交任务时等待许可的耗时")
+                .tag("name", EXECUTOR_NAME)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        BlockingExecutorService blockingExecutorService = new BlockingExecutorService(delegate, maxInFlight, submitWait);
+        Gauge.builder("executor.in.flight", blockingExecutorService, BlockingExecutorService::getInFlight)
+                .description("正在执行及等待执行的任务数")
+                .tag("name", EXECUTOR_NAME)
+                .register(meterRegistry);
+        Gauge.builder("executor.blocked.submitters", blockingExecutorService, BlockingExecutorService::getBlockedSubmitters)
+                .description("等待提交任务的线程数")
+                .tag("name", EXECUTOR_NAME)
+                .register(meterRegistry);
+        return blockingExecutorService;
+    }
+
+    private static int queueCapacity(TransactionProperties.Executor executor){
+        return executor.getQueueCapacity() > 0 ? executor.getQueueCapacity() : FULL_PROCESSORS * 100;
+    }
+
+    /**
+     * 编译版本为17，通过反射调用JDK21的Executors.newVirtualThreadPerTaskExecutor()
+     * @return 不支持虚拟线程时返回null
+     */
+    private static ExecutorService newVirtualThreadPool(){
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (Throwable e) {
+            throw new IllegalStateException("创建虚拟线程池失败", e);
+        }
+    }
+
+    /**
+     * 并发上限取连接池大小，任务再多也只会同时占用这么多连接
+     */
+    private static int maxConnections(DataSource dataSource){
+        if (dataSource instanceof HikariDataSource hikariDataSource) {
+            return hikariDataSource.getMaximumPoolSize();
+        }
+        return Math.max(4, FULL_PROCESSORS);
     }
 }
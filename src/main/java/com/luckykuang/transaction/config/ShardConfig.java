@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.config;
+
+import com.luckykuang.transaction.support.ShardedTransactionTemplate;
+import com.luckykuang.transaction.support.TransactionMetrics;
+import com.luckykuang.transaction.support.XaRecoveryLog;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.XADataSource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 分片数据源配置，启动时先恢复上次未完成的两阶段提交
+ * 每次分片事务在每个分片上打开一个新的XA连接，不经过连接池
+ * 多个实例共用分片时需要为每个实例配置不同的instance-id，否则按主机名区分
+ * @author luckykuang
+ * @date 2023/11/27 11:00
+ */
+@Configuration
+public class ShardConfig {
+
+    @Bean(initMethod = "recover", destroyMethod = "close")
+    public ShardedTransactionTemplate shardedTransactionTemplate(TransactionProperties transactionProperties,
+                                                                 ExecutorService transactionExecutor,
+                                                                 TransactionMetrics transactionMetrics)
+            throws UnknownHostException {
+        TransactionProperties.Sharding sharding = transactionProperties.getSharding();
+        Map<String, XADataSource> shards = new LinkedHashMap<>();
+        for (TransactionProperties.Shard shard : sharding.getShards()) {
+            if (shards.put(shard.getName(), newXaDataSource(shard)) != null) {
+                throw new IllegalArgumentException("分片名称重复：" + shard.getName());
+            }
+        }
+        return new ShardedTransactionTemplate(shards, transactionExecutor,
+                new XaRecoveryLog(Path.of(sharding.getRecoveryLog())), transactionMetrics,
+                sharding.getInstanceId() != null && !sharding.getInstanceId().isBlank()
+                        ? sharding.getInstanceId() : InetAddress.getLocalHost().getHostName(),
+                transactionProperties.getIsolation(), sharding.getChunkSize(),
+                sharding.getCommitBackoff(), sharding.getCommitMaxBackoff());
+    }
+
+    private static XADataSource newXaDataSource(TransactionProperties.Shard shard) {
+        if (shard.getName() == null || shard.getName().isBlank()) {
+            throw new IllegalArgumentException("分片名称不能为空");
+        }
+        Object dataSource;
+        try {
+            dataSource = Class.forName(shard.getXaDataSourceClassName()).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法创建分片数据源：" + shard.getName(), e);
+        }
+        if (!(dataSource instanceof XADataSource xaDataSource)) {
+            throw new IllegalArgumentException("不是XA数据源：" + shard.getXaDataSourceClassName());
+        }
+        BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(dataSource);
+        wrapper.setPropertyValue("url", shard.getUrl());
+        wrapper.setPropertyValue("user", shard.getUsername());
+        if (shard.getPassword() != null) {
+            wrapper.setPropertyValue("password", shard.getPassword());
+        }
+        return xaDataSource;
+    }
+}
@@ -16,12 +16,23 @@
 
 package com.luckykuang.transaction.config;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
 import org.mybatis.spring.SqlSessionTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Properties;
+
 /**
  * @author luckykuang
  * @date 2023/11/7 11:31
@@ -30,9 +41,77 @@ import org.springframework.stereotype.Component;
 public class SqlContext {
     @Resource
     private SqlSessionTemplate sqlSessionTemplate;
+    @Resource
+    private DataSource dataSource;
+    /**
+     * 开启local_infile的连接池，第一次使用LOAD_DATA时创建
+     */
+    private volatile HikariDataSource localInfileDataSource;
 
     public SqlSession getSqlSession(){
         SqlSessionFactory sqlSessionFactory = sqlSessionTemplate.getSqlSessionFactory();
         return sqlSessionFactory.openSession();
     }
+
+    public SqlSession getSqlSession(ExecutorType executorType){
+        SqlSessionFactory sqlSessionFactory = sqlSessionTemplate.getSqlSessionFactory();
+        return sqlSessionFactory.openSession(executorType);
+    }
+
+    /**
+     * 打开会话，localInfile为true时连接来自单独的连接池，只有这些连接允许执行LOAD DATA LOCAL INFILE
+     * 共用的连接池不开启local_infile，避免其他语句被服务端要求读取本地文件
+     * @param executorType 执行器类型
+     * @param localInfile 是否需要LOAD DATA LOCAL INFILE
+     */
+    public SqlSession getSqlSession(ExecutorType executorType, boolean localInfile) throws SQLException {
+        if (!localInfile) {
+            return getSqlSession(executorType);
+        }
+        Configuration configuration = sqlSessionTemplate.getSqlSessionFactory().getConfiguration();
+        JdbcTransaction transaction = new JdbcTransaction(localInfileDataSource(), null, false);
+        return new DefaultSqlSession(configuration, configuration.newExecutor(transaction, executorType), false);
+    }
+
+    private HikariDataSource localInfileDataSource() throws SQLException {
+        HikariDataSource localInfile = localInfileDataSource;
+        if (localInfile == null) {
+            synchronized (this) {
+                localInfile = localInfileDataSource;
+                if (localInfile == null) {
+                    localInfile = newLocalInfileDataSource();
+                    localInfileDataSource = localInfile;
+                }
+            }
+        }
+        return localInfile;
+    }
+
+    /**
+     * 复制共用连接池的配置，连接数上限相同，空闲时不保留连接；MySQL连接加上allowLoadLocalInfile=true
+     */
+    private HikariDataSource newLocalInfileDataSource() throws SQLException {
+        if (!dataSource.isWrapperFor(HikariDataSource.class)) {
+            throw new SQLException("LOAD_DATA需要使用Hikari连接池");
+        }
+        HikariDataSource shared = dataSource.unwrap(HikariDataSource.class);
+        HikariConfig config = new HikariConfig();
+        shared.copyStateTo(config);
+        Properties properties = new Properties();
+        properties.putAll(shared.getDataSourceProperties());
+        if (shared.getJdbcUrl() != null && shared.getJdbcUrl().startsWith("jdbc:mysql:")) {
+            properties.setProperty("allowLoadLocalInfile", "true");
+        }
+        config.setDataSourceProperties(properties);
+        config.setPoolName(shared.getPoolName() + "-local-infile");
+        config.setMinimumIdle(0);
+        return new HikariDataSource(config);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (localInfileDataSource != null) {
+            localInfileDataSource.close();
+        }
+    }
 }
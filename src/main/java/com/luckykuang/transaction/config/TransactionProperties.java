@@ -0,0 +1,342 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多线程事务配置
+ * @author luckykuang
+ * @date 2023/11/8 9:20
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "transaction")
+public class TransactionProperties {
+    /**
+     * 单次事务最多同时写入的子线程(连接)数量，注意不要超过数据库连接池大小
+     */
+    private int parallelism = 8;
+    /**
+     * 每个连接的事务隔离级别
+     * 多个连接同时写入同一张表，READ_COMMITTED下删除操作不会加间隙锁，不会阻塞其他连接的插入
+     */
+    private Isolation isolation = Isolation.READ_COMMITTED;
+    /**
+     * 分片大小
+     */
+    private Chunk chunk = new Chunk();
+    /**
+     * 批量写入
+     */
+    private Batch batch = new Batch();
+    /**
+     * 子线程线程池
+     */
+    private Executor executor = new Executor();
+    /**
+     * 分片重试
+     */
+    private Retry retry = new Retry();
+    /**
+     * 自适应并发限制
+     */
+    private Limiter limiter = new Limiter();
+    /**
+     * 多个事务之间公平分配写入许可
+     */
+    private Fairness fairness = new Fairness();
+    /**
+     * 用户查询缓存
+     */
+    private Cache cache = new Cache();
+    /**
+     * 增量同步
+     */
+    private Sync sync = new Sync();
+    /**
+     * 后台导入任务
+     */
+    private Job job = new Job();
+    /**
+     * 分片写入
+     */
+    private Sharding sharding = new Sharding();
+    /**
+     * 号段主键分配
+     */
+    private Id id = new Id();
+    /**
+     * 可恢复导入
+     */
+    private Checkpoint checkpoint = new Checkpoint();
+
+    @Data
+    public static class Chunk {
+        /**
+         * 固定分片行数，大于0时不再自适应调整，用于压测对比
+         */
+        private int fixedSize = 0;
+        /**
+         * 分片最小行数
+         */
+        private int minSize = 100;
+        /**
+         * 分片最大行数
+         */
+        private int maxSize = 5000;
+        /**
+         * 初始分片大小按每个子线程分到几个分片计算
+         */
+        private int chunksPerWorker = 4;
+        /**
+         * 单个分片期望的写入耗时
+         */
+        private Duration targetLatency = Duration.ofMillis(200);
+        /**
+         * 单条语句最大字节数，需要小于数据库的max_allowed_packet
+         */
+        private DataSize maxStatementBytes = DataSize.ofMegabytes(4);
+        /**
+         * 每行数据的初始估算字节数，运行期间按实际数据修正
+         */
+        private int estimatedRowBytes = 128;
+    }
+
+    @Data
+    public static class Batch {
+        /**
+         * BATCH模式下累计多少行执行一次flushStatements()
+         */
+        private int flushSize = 1000;
+    }
+
+    @Data
+    public static class Retry {
+        /**
+         * 单个分片最多尝试次数，包括第一次；只有锁等待超时、死锁等临时错误会重试，1表示不重试
+         */
+        private int maxAttempts = 3;
+        /**
+         * 第一次重试前的最大等待时间，之后每次翻倍，实际等待时间在0到该值之间随机，避免多个连接同时重试再次冲突
+         */
+        private Duration backoff = Duration.ofMillis(50);
+        /**
+         * 单次等待时间上限
+         */
+        private Duration maxBackoff = Duration.ofSeconds(2);
+    }
+
+    @Data
+    public static class Limiter {
+        private boolean enabled = true;
+        /**
+         * 初始上限，小于等于0时取parallelism
+         */
+        private int initialLimit = 0;
+        private int minLimit = 1;
+        /**
+         * 最大上限，小于等于0时取数据库连接池大小-1
+         */
+        private int maxLimit = 0;
+        /**
+         * 估算的数据库排队写入数少于该值时增加上限
+         */
+        private double alpha = 3;
+        /**
+         * 估算的数据库排队写入数多于该值时减小上限
+         */
+        private double beta = 6;
+        /**
+         * 过载(等待连接、锁等待超时、死锁)时上限乘以该比例
+         */
+        private double backoffRatio = 0.75;
+        /**
+         * 每隔多少次写入重新测量无排队时的耗时
+         */
+        private int probeInterval = 1000;
+    }
+
+    @Data
+    public static class Fairness {
+        /**
+         * 每个租户同时写入的分片数上限，小于等于0表示不限制
+         */
+        private int defaultTenantMaxInFlight = 0;
+        /**
+         * 单独指定部分租户的上限
+         */
+        private Map<String, Integer> tenantMaxInFlight = new HashMap<>();
+    }
+
+    @Data
+    public static class Executor {
+        /**
+         * 线程池类型
+         */
+        private ExecutorMode mode = ExecutorMode.PLATFORM;
+        /**
+         * 平台线程池大小，小于等于0时取数据库连接池大小，子线程再多也只能同时使用这么多连接
+         */
+        private int poolSize = 0;
+        /**
+         * 虚拟线程同时执行的最大任务数，小于等于0时取数据库连接池大小
+         */
+        private int maxConcurrency = 0;
+        /**
+         * 等待执行的任务数上限，超过时提交任务的线程阻塞等待，小于等于0时取CPU核数*100
+         */
+        private int queueCapacity = 0;
+        /**
+         * 异步导入的主线程数，即同时执行的导入数量，虚拟线程模式下不限制
+         */
+        private int coordinatorPoolSize = 16;
+    }
+
+    public enum ExecutorMode {
+        /**
+         * 平台线程池
+         */
+        PLATFORM,
+        /**
+         * 虚拟线程，需要JDK21
+         */
+        VIRTUAL
+    }
+
+    @Data
+    public static class Cache {
+        private boolean enabled = true;
+        /**
+         * 缓存的最大总行数
+         */
+        private long maximumRows = 1_000_000;
+        /**
+         * 写入后多久过期
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Sync {
+        /**
+         * 业务主键字段，可选name/age/gender
+         */
+        private List<String> naturalKey = List.of("name", "gender");
+    }
+
+    @Data
+    public static class Job {
+        /**
+         * 同时执行的导入任务数，多个大批量导入同时执行时会争抢子线程和连接，超过的任务排队
+         */
+        private int maxConcurrent = 2;
+        /**
+         * 排队等待的任务数上限，超过时拒绝提交
+         */
+        private int queueCapacity = 16;
+        /**
+         * 任务结束后保留多久，期间可以查询结果
+         */
+        private Duration retention = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Id {
+        /**
+         * 是否由客户端按号段分配主键，关闭时使用AUTO_INCREMENT
+         * 开启前需要先创建序列表t_sequence(见t_user.sql)，启动时按表中最大id初始化序列；
+         * 开启后写入这些表的地方都要使用号段分配，AUTO_INCREMENT生成的id可能落在已经预留的号段中
+         */
+        private boolean enabled = false;
+        /**
+         * 每次从序列表预留的id数量，越大访问序列表越少，重启时丢弃的id越多
+         */
+        private int blockSize = 10000;
+        /**
+         * 启动时初始化的序列(表名)
+         */
+        private List<String> sequences = new ArrayList<>(List.of("t_user"));
+    }
+
+    @Data
+    public static class Checkpoint {
+        /**
+         * 检查点日志目录，每个导入一个文件
+         */
+        private String journalDir = "logs/imports";
+        /**
+         * 分片大小，每个分片单独提交，中断后最多重新写入正在写入的分片
+         */
+        private int chunkSize = 5000;
+    }
+
+    @Data
+    public static class Sharding {
+        /**
+         * 分片数据源，为空时不启用分片写入；分片名称会写入XA事务分支，恢复时按名称匹配，上线后不能修改
+         */
+        private List<Shard> shards = new ArrayList<>();
+        /**
+         * 两阶段提交的恢复日志
+         */
+        private String recoveryLog = "logs/xa-recovery.log";
+        /**
+         * 实例id，写入XA全局事务id，重启时只恢复本实例的分支；为空时使用主机名
+         * 多个实例共用分片时必须各不相同，且同一实例重启前后不变、与恢复日志对应
+         */
+        private String instanceId;
+        /**
+         * 分片键，按这些字段的组合哈希路由，上线后不能修改，否则已有数据会被路由到其他分片
+         */
+        private List<String> shardKey = List.of("name", "gender");
+        /**
+         * 每个分片每次批量写入的行数
+         */
+        private int chunkSize = 1000;
+        /**
+         * 第二阶段提交失败后第一次重试前等待的时间，之后每次加倍
+         */
+        private Duration commitBackoff = Duration.ofMillis(100);
+        /**
+         * 重试提交的最大等待时间，超过后转到后台按该间隔重试直到成功
+         */
+        private Duration commitMaxBackoff = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Shard {
+        private String name;
+        /**
+         * XA数据源实现类，MySQL需要XA_RECOVER_ADMIN权限才能在重启时恢复未完成的事务
+         */
+        private String xaDataSourceClassName = "com.mysql.cj.jdbc.MysqlXADataSource";
+        private String url;
+        private String username;
+        private String password;
+    }
+}
@@ -16,13 +16,31 @@
 
 package com.luckykuang.transaction.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.entity.UserBatch;
+import com.luckykuang.transaction.service.SyncResult;
 import com.luckykuang.transaction.service.UserService;
+import com.luckykuang.transaction.support.InDoubtCommitException;
+import com.luckykuang.transaction.support.PartialCommitException;
+import com.luckykuang.transaction.support.TransactionProgress;
+import com.luckykuang.transaction.support.WriteMode;
 import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.sql.SQLException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author luckykuang
@@ -31,30 +49,149 @@ import java.util.List;
 @RestController
 @RequestMapping("user")
 public class UserController {
+    private static final int MAX_PAGE_SIZE = 10000;
 
     @Resource
     private UserService userService;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    /**
+     * 部分连接已提交时与整体回滚区分，提示数据不完整
+     */
+    @ExceptionHandler(PartialCommitException.class)
+    public ResponseEntity<Map<String, String>> partialCommit(PartialCommitException e) {
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("state", TransactionProgress.State.PARTIALLY_COMMITTED.name(), "error", e.getMessage()));
+    }
+
+    /**
+     * 分片事务已决定提交但部分分支还在后台重试提交，数据稍后才可见
+     */
+    @ExceptionHandler(InDoubtCommitException.class)
+    public ResponseEntity<Map<String, String>> inDoubt(InDoubtCommitException e) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(Map.of("state", TransactionProgress.State.IN_DOUBT.name(), "error", e.getMessage()));
+    }
 
     @GetMapping("find")
     public List<User> find(){
         return userService.getUserList();
     }
 
+    /**
+     * 游标流式查询全部用户，边查询边写入响应，输出为JSON数组
+     */
+    @GetMapping(value = "stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody stream(){
+        return outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                userService.streamUserList(user -> {
+                    try {
+                        generator.writeObject(user);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+    }
+
+    /**
+     * 按主键分页查询，下一页传入本页最后一条数据的id
+     */
+    @GetMapping("page")
+    public List<User> page(@RequestParam(required = false) Integer lastId,
+                           @RequestParam(defaultValue = "1000") int size){
+        return userService.getUserPage(lastId, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+    }
+
+    @GetMapping("cache-stats")
+    public Map<String, Object> cacheStats(){
+        return userService.getCacheStats();
+    }
+
     @PostMapping("save1")
-    public String save(@RequestBody List<User> users) throws SQLException {
-        userService.saveUsersByInvokeAll(users);
-        return "success";
+    public CompletableFuture<String> save(@RequestBody UserBatch users,
+                                          @RequestParam(defaultValue = "SIMPLE") WriteMode writeMode) {
+        return userService.saveUsersByInvokeAll(users, writeMode).thenApply(done -> "success");
     }
 
     @PostMapping("save2")
-    public String save2(@RequestBody List<User> users) throws SQLException {
-        userService.saveUsersBySubmit(users);
-        return "success";
+    public CompletableFuture<String> save2(@RequestBody UserBatch users,
+                                           @RequestParam(defaultValue = "SIMPLE") WriteMode writeMode) {
+        return userService.saveUsersBySubmit(users, writeMode).thenApply(done -> "success");
     }
 
     @PostMapping("save3")
-    public String save3(@RequestBody List<User> users) throws SQLException {
-        userService.saveUsersByCompletableFuture(users);
-        return "success";
+    public CompletableFuture<String> save3(@RequestBody UserBatch users,
+                                           @RequestParam(defaultValue = "SIMPLE") WriteMode writeMode) {
+        return userService.saveUsersByCompletableFuture(users, writeMode).thenApply(done -> "success");
+    }
+
+    /**
+     * 影子表导入，导入期间查询不受影响
+     */
+    @PostMapping("swap")
+    public CompletableFuture<String> swap(@RequestBody UserBatch users,
+                                          @RequestParam(defaultValue = "BATCH") WriteMode writeMode) {
+        return userService.saveUsersBySwap(users, writeMode).thenApply(done -> "success");
+    }
+
+    /**
+     * 分片导入，所有分片同时提交或回滚
+     */
+    @PostMapping("shard")
+    public CompletableFuture<String> shard(@RequestBody List<User> users) {
+        return userService.saveUsersBySharding(users).thenApply(done -> "success");
+    }
+
+    /**
+     * 可恢复导入，中断或超时后用同一个导入id重新提交相同的数据，从已提交的分片继续
+     */
+    @PutMapping("imports/{importId}")
+    public CompletableFuture<String> importUsers(@PathVariable String importId, @RequestBody UserBatch users,
+                                                 @RequestParam(defaultValue = "BATCH") WriteMode writeMode) {
+        return userService.importUsers(importId, users, writeMode).thenApply(done -> "success");
+    }
+
+    /**
+     * 增量同步，只写入有变化的数据
+     */
+    @PostMapping("sync")
+    public CompletableFuture<SyncResult> sync(@RequestBody List<User> users) {
+        return userService.syncUsers(users);
+    }
+
+    /**
+     * 后台导入，立即返回任务id，通过 jobs/{id} 查询进度
+     */
+    @PostMapping("jobs")
+    public Map<String, String> submitJob(@RequestBody UserBatch users,
+                                         @RequestParam(defaultValue = "BATCH") WriteMode writeMode) {
+        try {
+            return Map.of("id", userService.submitUsersJob(users, writeMode));
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "导入任务过多");
+        }
+    }
+
+    /**
+     * 导入任务进度：已写入行数、分片数、吞吐量，结束后为提交或回滚
+     */
+    @GetMapping("jobs/{id}")
+    public ResponseEntity<TransactionProgress.Snapshot> job(@PathVariable String id) {
+        return ResponseEntity.of(userService.getUsersJob(id));
+    }
+
+    /**
+     * 流式导入，请求体为NDJSON：每行一个用户
+     */
+    @PostMapping(value = "stream", consumes = "application/x-ndjson")
+    public CompletableFuture<String> stream(HttpServletRequest request,
+                                            @RequestParam(defaultValue = "BATCH") WriteMode writeMode) throws IOException {
+        return userService.saveUsersByStream(request.getInputStream(), writeMode).thenApply(done -> "success");
     }
 }
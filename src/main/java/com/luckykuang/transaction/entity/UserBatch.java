@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.entity;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * 按列存储的批量用户，用于大批量导入，不为每一行创建 {@link User} 对象：
+ *      age：int数组，NULL单独用位图标记
+ *      gender：取值很少，按字典编码，每行只存2字节的编号
+ *      name：UTF-8编码后连续存放在一个字节数组中，按偏移量定位
+ * 作为 {@link List} 使用时按需创建 {@link User}，写入时可以通过 {@link Slice} 直接按列读取；不支持id
+ * 只能在一个线程中追加，追加完成后可以被多个线程同时读取
+ * @author luckykuang
+ * @date 2023/11/30 9:30
+ */
+@JsonDeserialize(using = UserBatchDeserializer.class)
+public class UserBatch extends AbstractList<User> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private int[] ages = new int[INITIAL_CAPACITY];
+    private final BitSet ageNulls = new BitSet();
+    /**
+     * 0表示NULL，其余为字典下标+1
+     */
+    private char[] genderCodes = new char[INITIAL_CAPACITY];
+    private final List<String> genders = new ArrayList<>();
+    private final Map<String, Character> genderIndex = new HashMap<>();
+    private byte[] names = new byte[INITIAL_CAPACITY * 16];
+    /**
+     * 第i行的名称为names[nameOffsets[i], nameOffsets[i+1])
+     */
+    private int[] nameOffsets = new int[INITIAL_CAPACITY + 1];
+    private final BitSet nameNulls = new BitSet();
+
+    public void add(String name, Integer age, String gender) {
+        if (size == ages.length) {
+            int capacity = size + (size >> 1);
+            ages = Arrays.copyOf(ages, capacity);
+            genderCodes = Arrays.copyOf(genderCodes, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+        }
+        if (age == null) {
+            ageNulls.set(size);
+        } else {
+            ages[size] = age;
+        }
+        genderCodes[size] = encodeGender(gender);
+        int offset = nameOffsets[size];
+        if (name == null) {
+            nameNulls.set(size);
+        } else {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (offset + bytes.length > names.length) {
+                names = Arrays.copyOf(names, Math.max(offset + bytes.length, names.length + (names.length >> 1)));
+            }
+            System.arraycopy(bytes, 0, names, offset, bytes.length);
+            offset += bytes.length;
+        }
+        nameOffsets[size + 1] = offset;
+        size++;
+    }
+
+    @Override
+    public boolean add(User user) {
+        add(user.getName(), user.getAge(), user.getGender());
+        return true;
+    }
+
+    private char encodeGender(String gender) {
+        if (gender == null) {
+            return 0;
+        }
+        Character code = genderIndex.get(gender);
+        if (code == null) {
+            if (genders.size() >= Character.MAX_VALUE - 1) {
+                throw new IllegalArgumentException("性别取值过多：" + genders.size());
+            }
+            genders.add(gender);
+            code = (char) genders.size();
+            genderIndex.put(gender, code);
+        }
+        return code;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public String getName(int index) {
+        checkIndex(index);
+        if (nameNulls.get(index)) {
+            return null;
+        }
+        int offset = nameOffsets[index];
+        return new String(names, offset, nameOffsets[index + 1] - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 名称的UTF-8字节数
+     */
+    public int getNameBytes(int index) {
+        checkIndex(index);
+        return nameOffsets[index + 1] - nameOffsets[index];
+    }
+
+    public boolean isAgeNull(int index) {
+        checkIndex(index);
+        return ageNulls.get(index);
+    }
+
+    /**
+     * 年龄，为NULL时返回0
+     */
+    public int getAgeInt(int index) {
+        checkIndex(index);
+        return ages[index];
+    }
+
+    public Integer getAge(int index) {
+        return isAgeNull(index) ? null : ages[index];
+    }
+
+    /**
+     * 性别，同一取值返回同一个字符串对象
+     */
+    public String getGender(int index) {
+        checkIndex(index);
+        char code = genderCodes[index];
+        return code == 0 ? null : genders.get(code - 1);
+    }
+
+    /**
+     * 按需创建用户对象，大批量写入时应使用 {@link Slice} 按列读取
+     */
+    @Override
+    public User get(int index) {
+        User user = new User();
+        user.setName(getName(index));
+        user.setAge(getAge(index));
+        user.setGender(getGender(index));
+        return user;
+    }
+
+    @Override
+    public Slice subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size);
+        }
+        return new Slice(this, fromIndex, toIndex);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    /**
+     * 连续若干行的视图，{@link com.luckykuang.transaction.support.ListChunkSource} 按此切分分片
+     */
+    public static final class Slice extends AbstractList<User> implements RandomAccess {
+        private final UserBatch batch;
+        private final int from;
+        private final int to;
+
+        private Slice(UserBatch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        public UserBatch getBatch() {
+            return batch;
+        }
+
+        /**
+         * 第一行在批量中的下标
+         */
+        public int getFrom() {
+            return from;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public User get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+            }
+            return batch.get(from + index);
+        }
+
+        @Override
+        public Slice subList(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size());
+            }
+            return new Slice(batch, from + fromIndex, from + toIndex);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.entity;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * 把用户JSON数组逐个字段直接追加到 {@link UserBatch}，不创建中间的 {@link User} 对象
+ * 只读取name、age、gender，忽略其他字段；age交给Jackson的Integer反序列化器，与反序列化为 {@link User} 时的转换规则一致
+ * @author luckykuang
+ * @date 2023/11/30 10:00
+ */
+public class UserBatchDeserializer extends StdDeserializer<UserBatch> {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public UserBatchDeserializer() {
+        super(UserBatch.class);
+    }
+
+    @Override
+    public UserBatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (!p.isExpectedStartArrayToken()) {
+            return (UserBatch) ctxt.handleUnexpectedToken(UserBatch.class, p);
+        }
+        JsonDeserializer<Object> ageDeserializer = ctxt.findRootValueDeserializer(ctxt.constructType(Integer.class));
+        UserBatch batch = new UserBatch();
+        JsonToken token;
+        while ((token = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                return (UserBatch) ctxt.handleUnexpectedToken(UserBatch.class, p);
+            }
+            String name = null;
+            Integer age = null;
+            String gender = null;
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                token = p.nextToken();
+                switch (field) {
+                    case "name" -> name = readString(p, ctxt, token);
+                    case "age" -> age = token == JsonToken.VALUE_NULL
+                            ? null : (Integer) ageDeserializer.deserialize(p, ctxt);
+                    case "gender" -> gender = readString(p, ctxt, token);
+                    default -> p.skipChildren();
+                }
+            }
+            batch.add(name, age, gender);
+        }
+        return batch;
+    }
+
+    private static String readString(JsonParser p, DeserializationContext ctxt, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            return (String) ctxt.handleUnexpectedToken(String.class, p);
+        }
+        return p.getValueAsString();
+    }
+}
@@ -20,6 +20,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.luckykuang.transaction.entity.User;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 import java.util.List;
 
@@ -29,7 +30,53 @@ import java.util.List;
  */
 @Mapper
 public interface UserMapper extends BaseMapper<User> {
+    String TABLE = "t_user";
+
     List<User> getUserList();
 
+    /**
+     * 流式查询全部用户，需要在会话关闭前遍历完
+     */
+    Cursor<User> streamUserList();
+
+    /**
+     * 按主键分页：查询id大于lastId的size条数据
+     */
+    List<User> getUserPage(@Param("lastId") Integer lastId, @Param("size") int size);
+
     Integer saveBatch(@Param("Users") List<User> Users);
+
+    /**
+     * 写入指定的表，表名不能来自外部输入
+     */
+    Integer saveBatchInto(@Param("table") String table, @Param("Users") List<User> Users);
+
+    Integer insertOne(@Param("table") String table, @Param("user") User user);
+
+    /**
+     * 按id修改全部字段，为null的字段同样写入null
+     */
+    Integer updateOne(User user);
+
+    /**
+     * 创建与t_user结构相同的表
+     */
+    void createTableLike(@Param("table") String table);
+
+    /**
+     * 表不存在时创建与t_user结构相同的表
+     */
+    void createTableLikeIfAbsent(@Param("table") String table);
+
+    /**
+     * 删除指定表中id在[fromId, toId)范围内的数据
+     */
+    Integer deleteIdRange(@Param("table") String table, @Param("fromId") long fromId, @Param("toId") long toId);
+
+    void dropTable(@Param("table") String table);
+
+    /**
+     * 原子地把t_user改名为old，再把staging改名为t_user
+     */
+    void swapTable(@Param("staging") String staging, @Param("old") String old);
 }
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service;
+
+/**
+ * 增量同步结果
+ * @param inserted 新增数量
+ * @param updated 修改数量
+ * @param deleted 删除数量
+ * @param unchanged 未变化数量
+ * @author luckykuang
+ * @date 2023/11/23 10:00
+ */
+public record SyncResult(int inserted, int updated, int deleted, int unchanged) {
+}
@@ -18,9 +18,15 @@ package com.luckykuang.transaction.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.support.TransactionProgress;
+import com.luckykuang.transaction.support.WriteMode;
 
-import java.sql.SQLException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * @author luckykuang
@@ -29,9 +35,29 @@ import java.util.List;
 public interface UserService extends IService<User> {
     List<User> getUserList();
 
-    void saveUsersByInvokeAll(List<User> users) throws SQLException;
+    void streamUserList(Consumer<User> consumer);
 
-    void saveUsersBySubmit(List<User> users) throws SQLException;
+    List<User> getUserPage(Integer lastId, int size);
 
-    void saveUsersByCompletableFuture(List<User> users) throws SQLException;
+    Map<String, Object> getCacheStats();
+
+    CompletableFuture<Void> saveUsersByInvokeAll(List<User> users, WriteMode writeMode);
+
+    CompletableFuture<Void> saveUsersBySubmit(List<User> users, WriteMode writeMode);
+
+    CompletableFuture<Void> saveUsersByCompletableFuture(List<User> users, WriteMode writeMode);
+
+    CompletableFuture<Void> saveUsersBySwap(List<User> users, WriteMode writeMode);
+
+    CompletableFuture<Void> saveUsersBySharding(List<User> users);
+
+    CompletableFuture<Void> importUsers(String importId, List<User> users, WriteMode writeMode);
+
+    CompletableFuture<SyncResult> syncUsers(List<User> users);
+
+    String submitUsersJob(List<User> users, WriteMode writeMode);
+
+    Optional<TransactionProgress.Snapshot> getUsersJob(String id);
+
+    CompletableFuture<Void> saveUsersByStream(InputStream inputStream, WriteMode writeMode);
 }
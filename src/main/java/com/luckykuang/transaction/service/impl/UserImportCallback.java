@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.entity.UserBatch;
+import com.luckykuang.transaction.mapper.UserMapper;
+import com.luckykuang.transaction.support.ResumableImportCallback;
+import com.luckykuang.transaction.support.SegmentIdAllocator;
+import com.luckykuang.transaction.support.WriteMode;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 可恢复导入：按写入方式把用户写入以导入id命名的临时表，全部写入后与用户表原子替换
+ * 临时表在导入中断后保留，恢复时继续写入
+ * @author luckykuang
+ * @date 2023/12/4 16:30
+ */
+class UserImportCallback implements ResumableImportCallback<User> {
+    private final String staging;
+    private final String old;
+    private final SegmentIdAllocator idAllocator;
+    private final UserWriteCallback writer;
+    private final Lock userTableLock;
+
+    /**
+     * @param importId 导入id，由 {@link com.luckykuang.transaction.support.ResumableImportTemplate} 校验只包含小写字母、数字和下划线
+     * @param userTableLock 用户表的写入锁，发布时持有，不会与增量同步等整表写入交错
+     */
+    UserImportCallback(String importId, WriteMode writeMode, int flushSize, SegmentIdAllocator idAllocator,
+                       Lock userTableLock) {
+        this.staging = UserMapper.TABLE + "_import_" + importId;
+        this.old = UserMapper.TABLE + "_old_" + importId;
+        this.idAllocator = idAllocator;
+        this.writer = new UserWriteCallback(writeMode, flushSize, staging, idAllocator);
+        this.userTableLock = userTableLock;
+    }
+
+    @Override
+    public ExecutorType executorType() {
+        return writer.executorType();
+    }
+
+    @Override
+    public boolean localInfile() {
+        return writer.localInfile();
+    }
+
+    @Override
+    public long contentHash(User row) {
+        return UserKeys.contentHash(row);
+    }
+
+    /**
+     * 按列存储的数据直接按列计算，不创建用户对象
+     */
+    @Override
+    public long contentHash(List<User> rows, int index) {
+        if (rows instanceof UserBatch batch) {
+            return UserKeys.contentHash(batch.getName(index), batch.getAge(index), batch.getGender(index));
+        }
+        if (rows instanceof UserBatch.Slice slice) {
+            int row = slice.getFrom() + index;
+            UserBatch batch = slice.getBatch();
+            return UserKeys.contentHash(batch.getName(row), batch.getAge(row), batch.getGender(row));
+        }
+        return contentHash(rows.get(index));
+    }
+
+    @Override
+    public void prepare(SqlSession sqlSession, boolean resume) {
+        UserMapper userMapper = sqlSession.getMapper(UserMapper.class);
+        if (!resume) {
+            // 之前没有记录开始的导入留下的临时表，数据不可信
+            userMapper.dropTable(staging);
+        }
+        userMapper.createTableLikeIfAbsent(staging);
+    }
+
+    /**
+     * 开启号段主键分配时从用户表的序列中预留，否则临时表从1开始，替换后AUTO_INCREMENT从最大id继续
+     */
+    @Override
+    public long reserveIds(int rows) throws SQLException {
+        return idAllocator.isEnabled() ? idAllocator.allocate(UserMapper.TABLE, rows) : 1;
+    }
+
+    @Override
+    public int write(SqlSession sqlSession, List<User> chunk, long firstId) throws SQLException {
+        sqlSession.getMapper(UserMapper.class).deleteIdRange(staging, firstId, firstId + chunk.size());
+        // BATCH执行器先执行删除，再写入
+        sqlSession.flushStatements();
+        return writer.write(sqlSession, chunk, Math.toIntExact(firstId));
+    }
+
+    @Override
+    public void publish(SqlSession sqlSession) throws SQLException {
+        UserMapper userMapper = sqlSession.getMapper(UserMapper.class);
+        userTableLock.lock();
+        try {
+            if (!exists(sqlSession.getConnection(), staging)) {
+                // 替换后宕机，没有记录发布，只需要删除替换下来的旧表
+                userMapper.dropTable(old);
+                return;
+            }
+            userMapper.dropTable(old);
+            userMapper.swapTable(staging, old);
+            userMapper.dropTable(old);
+        } finally {
+            userTableLock.unlock();
+        }
+    }
+
+    private static boolean exists(Connection connection, String table) throws SQLException {
+        try (ResultSet resultSet = connection.getMetaData()
+                .getTables(connection.getCatalog(), null, table, new String[]{"TABLE"})) {
+            return resultSet.next();
+        }
+    }
+}
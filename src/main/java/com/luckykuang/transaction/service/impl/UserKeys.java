@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.User;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * 用户的业务主键及内容摘要
+ * @author luckykuang
+ * @date 2023/11/23 9:30
+ */
+final class UserKeys {
+    private static final char SEPARATOR = '\u0001';
+    private static final String NULL = "\u0000";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private UserKeys(){}
+
+    /**
+     * 按配置的字段拼接业务主键
+     * @param fields 字段名：name/age/gender
+     */
+    static Function<User, String> naturalKey(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            throw new IllegalArgumentException("业务主键字段不能为空");
+        }
+        List<Function<User, Object>> getters = fields.stream().map(UserKeys::getter).toList();
+        return user -> {
+            StringBuilder key = new StringBuilder();
+            for (Function<User, Object> getter : getters) {
+                key.append(Objects.toString(getter.apply(user), NULL)).append(SEPARATOR);
+            }
+            return key.toString();
+        };
+    }
+
+    private static Function<User, Object> getter(String field) {
+        return switch (field) {
+            case "name" -> User::getName;
+            case "age" -> User::getAge;
+            case "gender" -> User::getGender;
+            default -> throw new IllegalArgumentException("不支持的业务主键字段：" + field);
+        };
+    }
+
+    /**
+     * 除id以外所有字段的64位FNV-1a摘要，用于判断数据是否变化
+     */
+    static long contentHash(User user) {
+        return contentHash(user.getName(), user.getAge(), user.getGender());
+    }
+
+    /**
+     * 按字段计算，与 {@link #contentHash(User)} 结果相同，用于按列存储的数据
+     */
+    static long contentHash(String name, Integer age, String gender) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, name);
+        hash = hash(hash, age);
+        hash = hash(hash, gender);
+        return hash;
+    }
+
+    private static long hash(long hash, Object value) {
+        String text = Objects.toString(value, NULL);
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        hash ^= SEPARATOR;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.luckykuang.transaction.config.TransactionProperties;
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.support.TransactionListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 用户查询缓存
+ * 按缓存的总行数和过期时间淘汰；多线程事务提交期间持有写锁，提交完成后清空缓存：
+ *      提交期间命中缓存的读取拿到的是导入前的数据，未命中的读取等待提交完成后再查库，不会读到只提交了一部分的数据
+ * 缓存的集合不可修改
+ * @author luckykuang
+ * @date 2023/11/16 10:30
+ */
+@Component
+public class UserQueryCache implements TransactionListener {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final boolean enabled;
+    private final Cache<Object, List<User>> cache;
+
+    public UserQueryCache(TransactionProperties transactionProperties, MeterRegistry meterRegistry) {
+        TransactionProperties.Cache properties = transactionProperties.getCache();
+        this.enabled = properties.isEnabled();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaximumRows())
+                .weigher((Object key, List<User> users) -> users.size())
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "user-query");
+    }
+
+    /**
+     * 读取缓存，未命中时查库并放入缓存
+     * @param key 查询条件
+     * @param loader 查库
+     */
+    public List<User> get(Object key, Supplier<List<User>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        List<User> users = cache.getIfPresent(key);
+        if (users != null) {
+            return users;
+        }
+        lock.readLock().lock();
+        try {
+            // getIfPresent()已经记录过未命中，这里不再重复统计
+            return cache.asMap().computeIfAbsent(key, k -> Collections.unmodifiableList(loader.get()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        return result;
+    }
+
+    @Override
+    public void beforeCommit() {
+        lock.writeLock().lock();
+    }
+
+    @Override
+    public void afterCompletion(boolean committed) {
+        if (!lock.isWriteLockedByCurrentThread()) {
+            return;
+        }
+        try {
+            // 提交失败时也可能有部分连接已经提交，同样清空
+            cache.invalidateAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
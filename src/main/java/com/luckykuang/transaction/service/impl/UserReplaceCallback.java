@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.mapper.UserMapper;
+import com.luckykuang.transaction.support.SegmentIdAllocator;
+import com.luckykuang.transaction.support.WriteMode;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * 先删除全部用户，再按写入方式多线程写入新用户
+ * @author luckykuang
+ * @date 2023/11/10 11:00
+ */
+class UserReplaceCallback extends UserWriteCallback {
+
+    UserReplaceCallback(WriteMode writeMode, int flushSize, SegmentIdAllocator idAllocator) {
+        super(writeMode, flushSize, UserMapper.TABLE, idAllocator);
+    }
+
+    @Override
+    public void prepare(SqlSession sqlSession) {
+        // 先做删除操作
+        sqlSession.getMapper(UserMapper.class).delete(null);
+    }
+}
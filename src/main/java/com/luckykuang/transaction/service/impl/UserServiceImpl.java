@@ -17,182 +17,384 @@
 package com.luckykuang.transaction.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.luckykuang.transaction.config.ExecutorConfig;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.luckykuang.transaction.config.SqlContext;
+import com.luckykuang.transaction.config.TransactionProperties;
 import com.luckykuang.transaction.entity.User;
 import com.luckykuang.transaction.mapper.UserMapper;
+import com.luckykuang.transaction.service.SyncResult;
 import com.luckykuang.transaction.service.UserService;
+import com.luckykuang.transaction.support.ChunkSource;
+import com.luckykuang.transaction.support.DispatchMode;
+import com.luckykuang.transaction.support.IteratorChunkSource;
+import com.luckykuang.transaction.support.ListChunkSource;
+import com.luckykuang.transaction.support.MultiThreadTransactionTemplate;
+import com.luckykuang.transaction.support.ResumableImportTemplate;
+import com.luckykuang.transaction.support.SegmentIdAllocator;
+import com.luckykuang.transaction.support.ShardedTransactionTemplate;
+import com.luckykuang.transaction.support.TransactionJobScheduler;
+import com.luckykuang.transaction.support.TransactionProgress;
+import com.luckykuang.transaction.support.WriteMode;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.ListUtils;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.session.SqlSession;
 import org.springframework.stereotype.Service;
 
-import java.sql.Connection;
-import java.sql.SQLException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * 思路：
  *      主线程开启多个子线程，每个子线程开启自己的事务不提交，等所有数据都在子线程的事务里，且没有子线程报错的情况下，
  *      所有子线程再一起提交，发现任意一个子线程报错，所有子线程回滚。
+ * 具体实现参见 {@link MultiThreadTransactionTemplate}，每个子线程使用独立的连接，三个方法只是子线程的提交方式不同
  * @author luckykuang
  * @date 2023/11/7 10:56
  */
 @Slf4j
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements UserService {
+    private static final String ALL_USERS = "all";
+
+    /**
+     * 改写整张用户表的操作(全量替换、影子表替换、可恢复导入的发布、增量同步)在本实例内串行执行，
+     * 增量同步读取已有数据到写入提交之间，用户表不会被其他导入改变；多个实例部署时需要由调用方错开执行
+     */
+    private final ReentrantLock userTableLock = new ReentrantLock(true);
 
     @Resource
     private UserMapper userMapper;
     @Resource
     private SqlContext sqlContext;
+    @Resource
+    private MultiThreadTransactionTemplate multiThreadTransactionTemplate;
+    @Resource
+    private TransactionJobScheduler transactionJobScheduler;
+    @Resource
+    private ShardedTransactionTemplate shardedTransactionTemplate;
+    @Resource
+    private ResumableImportTemplate resumableImportTemplate;
+    @Resource
+    private TransactionProperties transactionProperties;
+    @Resource
+    private SegmentIdAllocator segmentIdAllocator;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private UserQueryCache userQueryCache;
 
     @Override
     public List<User> getUserList() {
-        return userMapper.getUserList();
+        return userQueryCache.get(ALL_USERS, userMapper::getUserList);
+    }
+
+    /**
+     * 游标逐行读取，读取一行处理一行，会话在遍历结束后关闭
+     * @param consumer 每行用户的处理
+     */
+    @Override
+    public void streamUserList(Consumer<User> consumer) {
+        try (SqlSession sqlSession = sqlContext.getSqlSession();
+             Cursor<User> cursor = sqlSession.getMapper(UserMapper.class).streamUserList()) {
+            cursor.forEach(consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 按主键分页，不使用OFFSET，翻到再后面的页也只扫描size行
+     * @param lastId 上一页最后一条数据的id，第一页传null
+     * @param size 每页数量
+     */
+    @Override
+    public List<User> getUserPage(Integer lastId, int size) {
+        return userQueryCache.get(new PageKey(lastId, size), () -> userMapper.getUserPage(lastId, size));
+    }
+
+    @Override
+    public Map<String, Object> getCacheStats() {
+        return userQueryCache.stats();
     }
 
     /**
-     * 队列中等待的线程过多时，本方法速度最慢，超级无敌慢，除非业务需要，否则强烈不推荐
-     * 存在的隐患：
-     *      复现思路：线程池大小只有4，阻塞队列大小只有1，数据有5条，每条数据启动一个线程
-     *      出现问题：invokeAll()需要等待所有子线程完成才会继续往下走，此时线程池只有4个，另外一个在阻塞队列，导致子线程永远都在等待，
-     *              此时将会出现死循环，永远阻塞下去
+     * 使用invokeAll()提交子线程，等待所有子线程全部执行完成
+     * 子线程数量不超过配置的并发数，子线程之间互不等待，不会再出现线程池占满后永远阻塞的问题
      * @param users
-     * @throws SQLException
+     * @param writeMode 写入方式
+     * @return 导入完成时结束
      */
     @Override
-    public void saveUsersByInvokeAll(List<User> users) throws SQLException {
-        // 获取数据库连接,获取会话(内部自有事务)
-        SqlSession sqlSession = sqlContext.getSqlSession();
-        Connection connection = sqlSession.getConnection();
-        try {
-            // 设置手动提交
-            connection.setAutoCommit(false);
-            UserMapper userMapperSession = sqlSession.getMapper(UserMapper.class);
-            // 先做删除操作
-            userMapperSession.delete(null);
-            ExecutorService threadPool = ExecutorConfig.getThreadPool();
-            List<Callable<Integer>> callableList = new ArrayList<>();
-            List<List<User>> lists = ListUtils.partition(users, 1);
-            for (List<User> list : lists) {
-                Callable<Integer> callable = () -> userMapperSession.saveBatch(list);
-                callableList.add(callable);
+    public CompletableFuture<Void> saveUsersByInvokeAll(List<User> users, WriteMode writeMode) {
+        return saveUsers(new ListChunkSource<>(users), DispatchMode.INVOKE_ALL, writeMode);
+    }
+
+    /**
+     * 使用submit()提交子线程，逐个获取结果
+     * 子线程数量不超过配置的并发数，数据量再大也只会提交固定数量的任务，不会因为超过(线程池数+阻塞队列数)而触发拒绝策略
+     * @param users
+     * @param writeMode 写入方式
+     * @return 导入完成时结束
+     */
+    @Override
+    public CompletableFuture<Void> saveUsersBySubmit(List<User> users, WriteMode writeMode) {
+        return saveUsers(new ListChunkSource<>(users), DispatchMode.SUBMIT, writeMode);
+    }
+
+    /**
+     * 使用supplyAsync()提交子线程，allOf()等待全部完成
+     * 不再在循环中逐个get()等待，所有子线程同时执行
+     * @param users
+     * @param writeMode 写入方式
+     * @return 导入完成时结束
+     */
+    @Override
+    public CompletableFuture<Void> saveUsersByCompletableFuture(List<User> users, WriteMode writeMode) {
+        return saveUsers(new ListChunkSource<>(users), DispatchMode.COMPLETABLE_FUTURE, writeMode);
+    }
+
+    /**
+     * 提交后台导入任务，立即返回任务id，导入方式与 {@link #saveUsersBySubmit} 相同
+     * @param users
+     * @param writeMode 写入方式
+     * @return 任务id
+     */
+    @Override
+    public String submitUsersJob(List<User> users, WriteMode writeMode) {
+        int flushSize = transactionProperties.getBatch().getFlushSize();
+        return transactionJobScheduler.submit(progress -> {
+            userTableLock.lock();
+            try {
+                multiThreadTransactionTemplate.execute(new ListChunkSource<>(users), DispatchMode.SUBMIT,
+                        new UserReplaceCallback(writeMode, flushSize, segmentIdAllocator), progress);
+            } finally {
+                userTableLock.unlock();
             }
-            // 执行子线程 此处等待所有的子线程全部执行完成，程序才会继续往下走
-            List<Future<Integer>> futures = threadPool.invokeAll(callableList);
-            for (Future<Integer> future : futures) {
-                Integer number = future.get();
-                log.info("处理数量：{}",number);
-                if (number <= 0) {
-                    connection.rollback();
-                    return;
-                }
+        });
+    }
+
+    @Override
+    public Optional<TransactionProgress.Snapshot> getUsersJob(String id) {
+        return transactionJobScheduler.get(id);
+    }
+
+    /**
+     * 按NDJSON(每行一个用户)边解析边写入，子线程领取分片时才从请求流中解析对应的行，
+     * 解析和写库同时进行，内存中只保留正在写入的分片，与上传数据大小无关
+     * @param inputStream 请求体
+     * @param writeMode 写入方式
+     * @return 导入完成时结束
+     */
+    @Override
+    public CompletableFuture<Void> saveUsersByStream(InputStream inputStream, WriteMode writeMode) {
+        return multiThreadTransactionTemplate.async(() -> {
+            try (MappingIterator<User> iterator = objectMapper.readerFor(User.class).readValues(inputStream)) {
+                doSaveUsers(new IteratorChunkSource<>(iterator), DispatchMode.SUBMIT, writeMode);
             }
-            connection.commit();
-            log.info("添加用户完毕");
-        } catch (Exception e) {
-            connection.rollback();
-            log.info("添加用户异常", e);
-            throw new RuntimeException("添加用户异常");
-        }
+            return null;
+        });
     }
 
     /**
-     * 正常情况下：
-     *      业务满足数据小于等于(线程池数+阻塞队列数)时，推荐此种写法
-     * 存在的隐患：
-     *      复现思路：线程池大小只有4，阻塞队列大小只有1，数据有6条，每条数据启动一个线程
-     *      出现问题：submit()会直接执行添加的任务，此时因为数据有6条，大于线程池+阻塞队列的大小，最终就会抛出拒绝执行的异常
-     * 此方法只要数据小于等于(线程池数+阻塞队列数)，就不会出现问题
-     * 当不满足上述条件时，就需要看丢弃策略配置了
-     * 参见 {@link ThreadPoolExecutor}
-     * 四种不同丢弃策略: CallerRunsPolicy/AbortPolicy/DiscardPolicy/DiscardOldestPolicy
+     * 影子表导入：先创建与t_user结构相同的临时表，多线程写入临时表并提交，最后用RENAME TABLE原子地替换t_user
+     * 导入期间不删除也不锁t_user，查询始终读取旧数据，没有锁等待；任意一步失败删除临时表，t_user不受影响
      * @param users
-     * @throws SQLException
+     * @param writeMode 写入方式
+     * @return 导入完成时结束
      */
     @Override
-    public void saveUsersBySubmit(List<User> users) throws SQLException {
-        // 获取数据库连接,获取会话(内部自有事务)
-        SqlSession sqlSession = sqlContext.getSqlSession();
-        Connection connection = sqlSession.getConnection();
-        try {
-            // 设置手动提交
-            connection.setAutoCommit(false);
-            UserMapper userMapperSession = sqlSession.getMapper(UserMapper.class);
-            // 先做删除操作
-            userMapperSession.delete(null);
-            ExecutorService threadPool = ExecutorConfig.getThreadPool();
-            List<Future<Integer>> futures = new ArrayList<>();
-            List<List<User>> lists = ListUtils.partition(users, 1);
-            for (List<User> list : lists) {
-                // 异步处理数据
-                Future<Integer> future = threadPool.submit(() -> userMapperSession.saveBatch(list));
-                futures.add(future);
+    public CompletableFuture<Void> saveUsersBySwap(List<User> users, WriteMode writeMode) {
+        return multiThreadTransactionTemplate.async(() -> {
+            doSaveUsersBySwap(users, writeMode);
+            return null;
+        });
+    }
+
+    /**
+     * 分片导入：按业务主键哈希分散写入多个分片数据源，每个分片一个子线程，两阶段提交保证所有分片同时生效
+     * @param users
+     * @return 导入完成时结束
+     */
+    @Override
+    public CompletableFuture<Void> saveUsersBySharding(List<User> users) {
+        return multiThreadTransactionTemplate.async(() -> {
+            try {
+                Function<User, String> shardKey = UserKeys.naturalKey(transactionProperties.getSharding().getShardKey());
+                shardedTransactionTemplate.execute(users, new UserShardCallback(shardKey));
+                log.info("添加用户完毕");
+            } catch (Exception e) {
+                log.info("添加用户异常", e);
+                throw new RuntimeException("添加用户异常", e);
             }
-            for (Future<Integer> future : futures) {
-                Integer number = future.get();
-                log.info("处理数量：{}",number);
-                if (number <= 0) {
-                    connection.rollback();
-                    return;
-                }
+            return null;
+        });
+    }
+
+    /**
+     * 可恢复导入：分片逐个提交到临时表并记录检查点，全部写入后替换用户表
+     * 进程退出或请求超时后用同一个导入id重新提交相同的数据，从未提交的分片继续写入
+     * @param importId 导入id
+     * @param users
+     * @param writeMode 写入方式
+     * @return 导入完成时结束
+     */
+    @Override
+    public CompletableFuture<Void> importUsers(String importId, List<User> users, WriteMode writeMode) {
+        return multiThreadTransactionTemplate.async(() -> {
+            try {
+                int flushSize = transactionProperties.getBatch().getFlushSize();
+                resumableImportTemplate.execute(importId, users,
+                        new UserImportCallback(importId, writeMode, flushSize, segmentIdAllocator, userTableLock));
+                log.info("导入用户完毕：{}", importId);
+            } catch (Exception e) {
+                log.info("导入用户异常：{}", importId, e);
+                throw new RuntimeException("导入用户异常", e);
             }
-            connection.commit();
+            return null;
+        });
+    }
+
+    private void doSaveUsersBySwap(List<User> users, WriteMode writeMode) {
+        String suffix = UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+        String staging = UserMapper.TABLE + "_staging_" + suffix;
+        String old = UserMapper.TABLE + "_old_" + suffix;
+        userTableLock.lock();
+        try {
+            userMapper.createTableLike(staging);
+            int flushSize = transactionProperties.getBatch().getFlushSize();
+            UserWriteCallback callback = new UserWriteCallback(writeMode, flushSize, staging, segmentIdAllocator) {
+                @Override
+                public void afterCommit() {
+                    userMapper.swapTable(staging, old);
+                    userMapper.dropTable(old);
+                }
+            };
+            multiThreadTransactionTemplate.execute(users, DispatchMode.SUBMIT, callback);
             log.info("添加用户完毕");
         } catch (Exception e) {
-            connection.rollback();
             log.info("添加用户异常", e);
-            throw new RuntimeException("添加用户异常");
+            throw new RuntimeException("添加用户异常", e);
+        } finally {
+            try {
+                userMapper.dropTable(staging);
+            } finally {
+                userTableLock.unlock();
+            }
         }
     }
 
     /**
-     * 正常情况下：
-     *      此方法速度接近saveUsersBySubmit()
-     * 注意事项：
-     *      join()会等待所有的supplyAsync()方法执行完成后，才会继续往下走，由于是要等待上一个supplyAsync()方法执行完成，
-     *      才会重新执行循环中的下一个supplyAsync()方法，所以此种写法不会触发拒绝策略，但是会增加耗时
-     * @param users
-     * @throws SQLException
+     * 增量同步：按业务主键对比传入数据和已有数据，只执行新增、修改、删除，未变化的数据不写库
+     * 已有数据通过游标逐行按内容摘要对比，不会整表加载到内存；传入数据业务主键重复时以最后一条为准
+     * 从读取已有数据到写入提交一直持有用户表的写入锁，对比结果不会因为其他导入在中间提交而过期
+     * 同一分片只包含同一类操作
+     * @param users 全量数据
+     * @return 各类操作数量
      */
     @Override
-    public void saveUsersByCompletableFuture(List<User> users) throws SQLException {
-        // 获取数据库连接,获取会话(内部自有事务)
-        SqlSession sqlSession = sqlContext.getSqlSession();
-        Connection connection = sqlSession.getConnection();
+    public CompletableFuture<SyncResult> syncUsers(List<User> users) {
+        return multiThreadTransactionTemplate.async(() -> doSyncUsers(users));
+    }
+
+    private SyncResult doSyncUsers(List<User> users) {
+        userTableLock.lock();
         try {
-            // 设置手动提交
-            connection.setAutoCommit(false);
-            UserMapper userMapperSession = sqlSession.getMapper(UserMapper.class);
-            // 先做删除操作
-            userMapperSession.delete(null);
-            ExecutorService threadPool = ExecutorConfig.getThreadPool();
-            List<CompletableFuture<Integer>> futures = new ArrayList<>();
-            List<List<User>> lists = ListUtils.partition(users, 1);
-            for (List<User> list : lists) {
-                // 异步处理数据
-                CompletableFuture<Integer> future = CompletableFuture.supplyAsync(() ->
-                        userMapperSession.saveBatch(list), threadPool);
-                Integer number = future.get();
-                log.info("处理数量：{}",number);
-                if (number <= 0){
-                    connection.rollback();
-                    return;
-                }
-                futures.add(future);
+            return doSyncUsersLocked(users);
+        } finally {
+            userTableLock.unlock();
+        }
+    }
+
+    private SyncResult doSyncUsersLocked(List<User> users) {
+        Function<User, String> naturalKey = UserKeys.naturalKey(transactionProperties.getSync().getNaturalKey());
+        Map<String, User> incoming = new LinkedHashMap<>();
+        for (User user : users) {
+            incoming.put(naturalKey.apply(user), user);
+        }
+        List<UserSyncCallback.Operation> updates = new ArrayList<>();
+        List<UserSyncCallback.Operation> deletes = new ArrayList<>();
+        Set<String> existing = new HashSet<>();
+        int[] unchanged = new int[1];
+        streamUserList(current -> {
+            String key = naturalKey.apply(current);
+            User user = incoming.get(key);
+            if (user == null || !existing.add(key)) {
+                // 传入数据中没有，或者已有数据中业务主键重复
+                deletes.add(new UserSyncCallback.Operation(UserSyncCallback.Type.DELETE, current));
+            } else if (UserKeys.contentHash(user) != UserKeys.contentHash(current)) {
+                User update = new User();
+                update.setId(current.getId());
+                update.setName(user.getName());
+                update.setAge(user.getAge());
+                update.setGender(user.getGender());
+                updates.add(new UserSyncCallback.Operation(UserSyncCallback.Type.UPDATE, update));
+            } else {
+                unchanged[0]++;
             }
-            // 等待所有异步任务完成(此处会阻塞，直到所有线程处理完成)
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-            connection.commit();
+        });
+        List<UserSyncCallback.Operation> operations = new ArrayList<>();
+        incoming.forEach((key, user) -> {
+            if (!existing.contains(key)) {
+                operations.add(new UserSyncCallback.Operation(UserSyncCallback.Type.INSERT, user));
+            }
+        });
+        int inserted = operations.size();
+        operations.addAll(updates);
+        operations.addAll(deletes);
+        SyncResult result = new SyncResult(inserted, updates.size(), deletes.size(), unchanged[0]);
+        if (operations.isEmpty()) {
+            log.info("同步用户完毕，没有变化");
+            return result;
+        }
+        try {
+            // 按操作类型切分分片，BATCH执行器在一个分片内只使用一个预编译语句
+            multiThreadTransactionTemplate.execute(new ListChunkSource<>(operations, UserSyncCallback.Operation::type),
+                    DispatchMode.SUBMIT,
+                    new UserSyncCallback(transactionProperties.getBatch().getFlushSize(), segmentIdAllocator));
+            log.info("同步用户完毕：{}", result);
+            return result;
+        } catch (Exception e) {
+            log.info("同步用户异常", e);
+            throw new RuntimeException("同步用户异常", e);
+        }
+    }
+
+    private CompletableFuture<Void> saveUsers(ChunkSource<User> source, DispatchMode mode, WriteMode writeMode) {
+        return multiThreadTransactionTemplate.async(() -> {
+            doSaveUsers(source, mode, writeMode);
+            return null;
+        });
+    }
+
+    private void doSaveUsers(ChunkSource<User> source, DispatchMode mode, WriteMode writeMode) {
+        userTableLock.lock();
+        try {
+            multiThreadTransactionTemplate.execute(source, mode,
+                    new UserReplaceCallback(writeMode, transactionProperties.getBatch().getFlushSize(), segmentIdAllocator));
             log.info("添加用户完毕");
         } catch (Exception e) {
-            connection.rollback();
             log.info("添加用户异常", e);
-            throw new RuntimeException("添加用户异常");
+            throw new RuntimeException("添加用户异常", e);
+        } finally {
+            userTableLock.unlock();
         }
     }
+
+    private record PageKey(Integer lastId, int size) {
+    }
 }
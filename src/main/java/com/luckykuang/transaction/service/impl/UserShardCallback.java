@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.mapper.UserMapper;
+import com.luckykuang.transaction.support.BatchResults;
+import com.luckykuang.transaction.support.ShardCallback;
+import com.luckykuang.transaction.support.StatementCancelInterceptor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 按业务主键分片全量替换t_user：每个分片先删除旧数据，再批量写入路由到该分片的数据
+ * id由各分片自增生成，不同分片之间可能重复，按业务主键定位数据
+ * @author luckykuang
+ * @date 2023/11/27 11:30
+ */
+class UserShardCallback implements ShardCallback<User> {
+    private static final String DELETE_SQL = "DELETE FROM " + UserMapper.TABLE;
+    private static final String INSERT_SQL = "INSERT INTO " + UserMapper.TABLE + " (name, age, gender) VALUES (?, ?, ?)";
+
+    private final Function<User, String> shardKey;
+
+    UserShardCallback(Function<User, String> shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    @Override
+    public Object shardKey(User row) {
+        return shardKey.apply(row);
+    }
+
+    @Override
+    public void prepare(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            StatementCancelInterceptor.register(statement);
+            statement.executeUpdate(DELETE_SQL);
+        }
+    }
+
+    @Override
+    public int write(Connection connection, List<User> chunk) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+            for (User user : chunk) {
+                statement.setString(1, user.getName());
+                statement.setObject(2, user.getAge(), Types.INTEGER);
+                statement.setString(3, user.getGender());
+                statement.addBatch();
+            }
+            StatementCancelInterceptor.register(statement);
+            return BatchResults.count(statement.executeBatch());
+        }
+    }
+}
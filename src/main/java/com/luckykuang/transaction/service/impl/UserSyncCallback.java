@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.mapper.UserMapper;
+import com.luckykuang.transaction.support.BatchResults;
+import com.luckykuang.transaction.support.SegmentIdAllocator;
+import com.luckykuang.transaction.support.TransactionCallback;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 多线程执行增量同步的新增、修改、删除操作
+ * 同一分片内的操作按类型排好序，BATCH执行器可以连续复用同一个预编译语句
+ * 新增的用户与导入共用号段主键分配，避免AUTO_INCREMENT生成的id与已预留的号段冲突
+ * @author luckykuang
+ * @date 2023/11/23 10:20
+ */
+class UserSyncCallback implements TransactionCallback<UserSyncCallback.Operation> {
+
+    enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    record Operation(Type type, User user) {
+    }
+
+    private final int flushSize;
+    private final SegmentIdAllocator idAllocator;
+
+    UserSyncCallback(int flushSize, SegmentIdAllocator idAllocator) {
+        this.flushSize = Math.max(1, flushSize);
+        this.idAllocator = idAllocator;
+    }
+
+    @Override
+    public ExecutorType executorType() {
+        return ExecutorType.BATCH;
+    }
+
+    @Override
+    public int write(SqlSession sqlSession, List<Operation> chunk) throws SQLException {
+        assignIds(chunk);
+        UserMapper userMapper = sqlSession.getMapper(UserMapper.class);
+        int count = 0;
+        int pending = 0;
+        for (Operation operation : chunk) {
+            switch (operation.type()) {
+                case INSERT -> userMapper.insertOne(UserMapper.TABLE, operation.user());
+                case UPDATE -> userMapper.updateOne(operation.user());
+                case DELETE -> userMapper.deleteById(operation.user().getId());
+            }
+            if (++pending >= flushSize) {
+                count += BatchResults.count(sqlSession.flushStatements());
+                pending = 0;
+            }
+        }
+        count += BatchResults.count(sqlSession.flushStatements());
+        return count;
+    }
+
+    private void assignIds(List<Operation> chunk) throws SQLException {
+        if (!idAllocator.isEnabled()) {
+            return;
+        }
+        int inserts = (int) chunk.stream().filter(operation -> operation.type() == Type.INSERT).count();
+        if (inserts == 0) {
+            return;
+        }
+        int id = Math.toIntExact(idAllocator.allocate(UserMapper.TABLE, inserts));
+        for (Operation operation : chunk) {
+            if (operation.type() == Type.INSERT) {
+                operation.user().setId(id++);
+            }
+        }
+    }
+
+    @Override
+    public int estimateRowBytes(Operation operation) {
+        User user = operation.user();
+        int bytes = 32;
+        if (user.getName() != null) {
+            bytes += user.getName().length() * 4;
+        }
+        if (user.getGender() != null) {
+            bytes += user.getGender().length() * 4;
+        }
+        return bytes;
+    }
+}
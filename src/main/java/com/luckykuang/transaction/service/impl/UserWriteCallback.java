@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.entity.UserBatch;
+import com.luckykuang.transaction.mapper.UserMapper;
+import com.luckykuang.transaction.support.BatchResults;
+import com.luckykuang.transaction.support.CsvBulkLoader;
+import com.luckykuang.transaction.support.SegmentIdAllocator;
+import com.luckykuang.transaction.support.StatementCancelInterceptor;
+import com.luckykuang.transaction.support.TransactionCallback;
+import com.luckykuang.transaction.support.WriteMode;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按写入方式多线程写入用户到指定的表
+ * 开启号段主键分配时每个分片预留一段连续的id，按顺序指定主键写入，否则由AUTO_INCREMENT生成
+ * @author luckykuang
+ * @date 2023/11/10 11:00
+ */
+class UserWriteCallback implements TransactionCallback<User> {
+    private static final List<String> COLUMNS = List.of("id", "name", "age", "gender");
+    /**
+     * 一条多VALUES的insert语句最多的行数，MySQL预编译语句最多65535个占位符
+     */
+    static final int MAX_STATEMENT_ROWS = 65535 / COLUMNS.size();
+
+    private final WriteMode writeMode;
+    private final int flushSize;
+    private final String table;
+    private final SegmentIdAllocator idAllocator;
+
+    UserWriteCallback(WriteMode writeMode, int flushSize, String table, SegmentIdAllocator idAllocator) {
+        this.writeMode = writeMode;
+        this.flushSize = Math.max(1, flushSize);
+        this.table = table;
+        this.idAllocator = idAllocator;
+    }
+
+    @Override
+    public ExecutorType executorType() {
+        return writeMode.getExecutorType();
+    }
+
+    @Override
+    public boolean localInfile() {
+        return writeMode == WriteMode.LOAD_DATA;
+    }
+
+    @Override
+    public int write(SqlSession sqlSession, List<User> chunk) throws SQLException {
+        // 临时表替换时写入的数据最终也在用户表中，共用用户表的序列
+        Integer firstId = idAllocator.isEnabled()
+                ? Math.toIntExact(idAllocator.allocate(UserMapper.TABLE, chunk.size())) : null;
+        return write(sqlSession, chunk, firstId);
+    }
+
+    /**
+     * 按指定的主键写入分片
+     * @param firstId 分片第一行的主键，之后按顺序递增，为null时由AUTO_INCREMENT生成
+     */
+    int write(SqlSession sqlSession, List<User> chunk, Integer firstId) throws SQLException {
+        if (chunk instanceof UserBatch.Slice slice) {
+            return writeColumns(sqlSession.getConnection(), slice, firstId);
+        }
+        List<User> users = assignIds(chunk, firstId);
+        UserMapper userMapper = sqlSession.getMapper(UserMapper.class);
+        return switch (writeMode) {
+            case SIMPLE -> {
+                int count = 0;
+                for (int from = 0; from < users.size(); from += MAX_STATEMENT_ROWS) {
+                    count += userMapper.saveBatchInto(table,
+                            users.subList(from, Math.min(users.size(), from + MAX_STATEMENT_ROWS)));
+                }
+                yield count;
+            }
+            case BATCH -> {
+                int count = 0;
+                int pending = 0;
+                for (User user : users) {
+                    userMapper.insertOne(table, user);
+                    if (++pending >= flushSize) {
+                        count += BatchResults.count(sqlSession.flushStatements());
+                        pending = 0;
+                    }
+                }
+                count += BatchResults.count(sqlSession.flushStatements());
+                yield count;
+            }
+            case LOAD_DATA -> CsvBulkLoader.load(sqlSession.getConnection(), table, COLUMNS, users,
+                    user -> new Object[]{user.getId(), user.getName(), user.getAge(), user.getGender()});
+        };
+    }
+
+    /**
+     * 按分片中的顺序给用户指定主键
+     */
+    private static List<User> assignIds(List<User> chunk, Integer firstId) {
+        if (firstId != null) {
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setId(firstId + i);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * 按列存储的分片直接按列绑定参数，不创建用户对象
+     * SIMPLE与mapper语句相同，每 {@link #MAX_STATEMENT_ROWS} 行一条多VALUES的insert语句；BATCH复用单行insert语句批量执行
+     */
+    private int writeColumns(Connection connection, UserBatch.Slice slice, Integer firstId) throws SQLException {
+        UserBatch batch = slice.getBatch();
+        int from = slice.getFrom();
+        int rows = slice.size();
+        if (writeMode == WriteMode.LOAD_DATA) {
+            return CsvBulkLoader.load(connection, table, COLUMNS, rows, i -> new Object[]{
+                    firstId != null ? firstId + i : null,
+                    batch.getName(from + i), batch.getAge(from + i), batch.getGender(from + i)});
+        }
+        String insert = "INSERT INTO " + table + " (" + String.join(", ", COLUMNS) + ") VALUES ";
+        if (writeMode == WriteMode.SIMPLE) {
+            int count = 0;
+            for (int start = 0; start < rows; start += MAX_STATEMENT_ROWS) {
+                int size = Math.min(rows - start, MAX_STATEMENT_ROWS);
+                try (PreparedStatement statement = connection.prepareStatement(
+                        insert + String.join(", ", Collections.nCopies(size, "(?, ?, ?, ?)")))) {
+                    for (int i = 0; i < size; i++) {
+                        int row = start + i;
+                        bind(statement, i * COLUMNS.size(), batch, from + row, firstId != null ? firstId + row : null);
+                    }
+                    StatementCancelInterceptor.register(statement);
+                    count += statement.executeUpdate();
+                }
+            }
+            return count;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(insert + "(?, ?, ?, ?)")) {
+            StatementCancelInterceptor.register(statement);
+            int count = 0;
+            int pending = 0;
+            for (int i = from; i < from + rows; i++) {
+                bind(statement, 0, batch, i, firstId != null ? firstId + i - from : null);
+                statement.addBatch();
+                if (++pending >= flushSize) {
+                    count += BatchResults.count(statement.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                count += BatchResults.count(statement.executeBatch());
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 绑定一行的参数
+     * @param offset 该行第一个参数之前的参数个数
+     * @param row 行在整批数据中的下标
+     * @param id 主键，为null时由AUTO_INCREMENT生成
+     */
+    private static void bind(PreparedStatement statement, int offset, UserBatch batch, int row, Integer id)
+            throws SQLException {
+        if (id != null) {
+            statement.setInt(offset + 1, id);
+        } else {
+            statement.setNull(offset + 1, Types.INTEGER);
+        }
+        statement.setString(offset + 2, batch.getName(row));
+        if (batch.isAgeNull(row)) {
+            statement.setNull(offset + 3, Types.INTEGER);
+        } else {
+            statement.setInt(offset + 3, batch.getAgeInt(row));
+        }
+        statement.setString(offset + 4, batch.getGender(row));
+    }
+
+    /**
+     * 估算一行用户数据在insert语句中的字节数：utf8mb4每个字符最多4字节，再加上数字和分隔符
+     */
+    @Override
+    public int estimateRowBytes(User user) {
+        int bytes = 24;
+        if (user.getName() != null) {
+            bytes += user.getName().length() * 4;
+        }
+        if (user.getGender() != null) {
+            bytes += user.getGender().length() * 4;
+        }
+        return bytes;
+    }
+
+    @Override
+    public long estimateChunkBytes(List<User> chunk) {
+        if (!(chunk instanceof UserBatch.Slice slice)) {
+            return TransactionCallback.super.estimateChunkBytes(chunk);
+        }
+        UserBatch batch = slice.getBatch();
+        long bytes = 24L * slice.size();
+        for (int i = slice.getFrom(); i < slice.getFrom() + slice.size(); i++) {
+            bytes += batch.getNameBytes(i);
+            String gender = batch.getGender(i);
+            if (gender != null) {
+                bytes += gender.length() * 4L;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+
+/**
+ * 自适应分片大小
+ * 初始大小：数据量平均分给每个子线程若干个分片，并受单条语句最大字节数限制
+ * 运行期间：根据已写入分片的每行平均耗时，调整到单个分片耗时接近目标耗时，每次最多放大或缩小一倍
+ * 配置了固定分片行数时始终使用固定值
+ * @author luckykuang
+ * @date 2023/11/9 14:30
+ */
+public class AdaptiveChunkSizer {
+    /**
+     * 指数移动平均的权重
+     */
+    private static final double ALPHA = 0.3;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long maxStatementBytes;
+    private final long targetNanos;
+    private final boolean fixed;
+    private double rowBytes;
+    private double rowNanos;
+    private int size;
+
+    public AdaptiveChunkSizer(TransactionProperties.Chunk chunk, int totalRows, int workers) {
+        this.minSize = Math.max(1, chunk.getMinSize());
+        this.maxSize = Math.max(minSize, chunk.getMaxSize());
+        this.maxStatementBytes = chunk.getMaxStatementBytes().toBytes();
+        this.targetNanos = chunk.getTargetLatency().toNanos();
+        this.rowBytes = Math.max(1, chunk.getEstimatedRowBytes());
+        this.fixed = chunk.getFixedSize() > 0;
+        if (fixed) {
+            this.size = chunk.getFixedSize();
+            return;
+        }
+        int initial = maxSize;
+        if (totalRows > 0) {
+            long chunks = (long) Math.max(1, workers) * Math.max(1, chunk.getChunksPerWorker());
+            initial = (int) Math.min(Integer.MAX_VALUE, (totalRows + chunks - 1) / chunks);
+        }
+        this.size = clamp(initial);
+    }
+
+    /**
+     * 下一个分片的行数
+     */
+    public synchronized int nextSize() {
+        return size;
+    }
+
+    /**
+     * 记录一个分片的写入情况，并调整后续分片大小
+     * @param rows 行数
+     * @param bytes 估算字节数，小于等于0表示未知
+     * @param nanos 写入耗时
+     */
+    public synchronized void record(int rows, long bytes, long nanos) {
+        if (rows <= 0 || fixed) {
+            return;
+        }
+        if (bytes > 0) {
+            rowBytes = average(rowBytes, (double) bytes / rows);
+        }
+        rowNanos = average(rowNanos, (double) nanos / rows);
+        long target = rowNanos > 0 ? (long) (targetNanos / rowNanos) : maxSize;
+        long bounded = Math.max(size / 2, Math.min((long) size * 2, target));
+        size = clamp(bounded);
+    }
+
+    private double average(double current, double sample) {
+        return current <= 0 ? sample : current + ALPHA * (sample - current);
+    }
+
+    private int clamp(long rows) {
+        long byBytes = Math.max(1, (long) (maxStatementBytes / Math.max(1, rowBytes)));
+        long limit = Math.min(maxSize, byBytes);
+        return (int) Math.max(Math.min(minSize, limit), Math.min(rows, limit));
+    }
+}
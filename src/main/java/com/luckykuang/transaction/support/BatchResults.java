@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.apache.ibatis.executor.BatchResult;
+
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 批量执行结果统计
+ * @author luckykuang
+ * @date 2023/11/10 10:40
+ */
+public final class BatchResults {
+    private BatchResults(){}
+
+    /**
+     * 统计批量执行影响的行数
+     * 驱动改写批量语句后返回 {@link Statement#SUCCESS_NO_INFO}，按每条语句影响一行计算
+     */
+    public static int count(List<BatchResult> results) {
+        int count = 0;
+        for (BatchResult result : results) {
+            count += count(result.getUpdateCounts());
+        }
+        return count;
+    }
+
+    /**
+     * 统计JDBC批量执行影响的行数
+     * @param updateCounts {@link Statement#executeBatch()} 的返回值
+     */
+    public static int count(int[] updateCounts) {
+        int count = 0;
+        for (int updateCount : updateCounts) {
+            if (updateCount == Statement.SUCCESS_NO_INFO) {
+                count++;
+            } else if (updateCount > 0) {
+                count += updateCount;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.util.List;
+
+/**
+ * 分片数据来源，多个子线程并发领取，实现需要保证线程安全
+ * @author luckykuang
+ * @date 2023/11/9 14:10
+ */
+public interface ChunkSource<T> {
+
+    /**
+     * 领取下一个分片
+     * @param maxRows 分片最大行数
+     * @return 分片数据，没有数据时返回空集合
+     */
+    List<T> next(int maxRows);
+
+    /**
+     * 数据总行数，未知时返回-1
+     */
+    default int totalRows() {
+        return -1;
+    }
+
+    /**
+     * 数据是否已经全部领取
+     */
+    boolean isExhausted();
+}
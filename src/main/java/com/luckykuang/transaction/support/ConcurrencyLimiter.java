@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * 自适应并发限制：所有多线程事务共用，限制同时写入的分片数，写入前获取许可，写入后归还并反馈耗时
+ * 只负责计算上限，许可的等待和分配由 {@link FairChunkScheduler} 完成
+ * 参考TCP Vegas：
+ *      以观测到的最小单行耗时作为数据库无排队时的耗时，limit * (1 - 最小耗时 / 当前耗时) 估算在数据库中排队的写入数，
+ *      排队少于alpha时加1，多于beta时减1；
+ *      有线程在等待连接池连接，或写入因锁等待、死锁等临时错误失败时，说明已经过载，按比例减小(AIMD)
+ * 最小耗时每隔一定次数重新测量，避免数据量变化后一直使用过时的基准
+ * @author luckykuang
+ * @date 2023/12/1 9:30
+ */
+@Slf4j
+@Component
+public class ConcurrencyLimiter {
+    private final TransactionProperties.Limiter config;
+    private final HikariDataSource hikariDataSource;
+    private final int minLimit;
+    private final int maxLimit;
+    private int limit;
+    private int inFlight;
+    private double noLoadRowNanos;
+    private long samples;
+
+    public ConcurrencyLimiter(TransactionProperties transactionProperties, DataSource dataSource,
+                              MeterRegistry meterRegistry) throws SQLException {
+        this.config = transactionProperties.getLimiter();
+        this.hikariDataSource = dataSource.isWrapperFor(HikariDataSource.class)
+                ? dataSource.unwrap(HikariDataSource.class) : null;
+        int poolSize = hikariDataSource != null ? hikariDataSource.getMaximumPoolSize() : Integer.MAX_VALUE;
+        this.minLimit = Math.max(1, config.getMinLimit());
+        // 至少给主线程留一个连接
+        this.maxLimit = Math.max(minLimit, config.getMaxLimit() > 0 ? config.getMaxLimit() : poolSize - 1);
+        int initialLimit = config.getInitialLimit() > 0 ? config.getInitialLimit() : transactionProperties.getParallelism();
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        log.info("自适应并发限制，初始：{}，范围：[{}, {}]", limit, minLimit, maxLimit);
+        Gauge.builder("transaction.limiter.limit", this, ConcurrencyLimiter::getLimit)
+                .description("同时写入的分片数上限")
+                .register(meterRegistry);
+        Gauge.builder("transaction.limiter.in.flight", this, ConcurrencyLimiter::getInFlight)
+                .description("正在写入的分片数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取许可，达到上限时立即返回
+     * @return 是否获取到许可，获取到的必须调用 {@link #release}
+     */
+    public synchronized boolean tryAcquire() {
+        if (config.isEnabled() && inFlight >= limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * 归还许可并反馈本次写入结果
+     * @param rows 写入行数，为0时只归还许可(例如没有领取到分片)
+     * @param nanos 写入耗时
+     * @param overloaded 是否因锁等待、死锁等过载相关的错误失败
+     */
+    public synchronized void release(int rows, long nanos, boolean overloaded) {
+        boolean limited = inFlight >= limit;
+        inFlight--;
+        if (config.isEnabled() && (rows > 0 || overloaded)) {
+            update(rows, nanos, overloaded, limited);
+        }
+    }
+
+    /**
+     * 写入过程中遇到锁等待超时、死锁等错误，重试前调用
+     */
+    public synchronized void overloaded() {
+        if (config.isEnabled()) {
+            limit = Math.max(minLimit, (int) (limit * config.getBackoffRatio()));
+        }
+    }
+
+    private void update(int rows, long nanos, boolean overloaded, boolean limited) {
+        if (overloaded || threadsAwaitingConnection() > 0) {
+            limit = Math.max(minLimit, (int) (limit * config.getBackoffRatio()));
+            return;
+        }
+        double rowNanos = (double) nanos / rows;
+        if (++samples % Math.max(1, config.getProbeInterval()) == 0 || noLoadRowNanos <= 0 || rowNanos < noLoadRowNanos) {
+            noLoadRowNanos = rowNanos;
+        }
+        double queued = limit * (1 - noLoadRowNanos / rowNanos);
+        if (queued <= config.getAlpha()) {
+            // 没有用满许可时增加也没有意义
+            if (limited) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        } else if (queued >= config.getBeta()) {
+            limit = Math.max(minLimit, limit - 1);
+        }
+    }
+
+    private int threadsAwaitingConnection() {
+        if (hikariDataSource == null) {
+            return 0;
+        }
+        HikariPoolMXBean pool = hikariDataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
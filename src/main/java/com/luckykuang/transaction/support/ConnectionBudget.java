@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 多线程事务和可恢复导入占用的连接预算：所有事务共用，总数为连接池大小减一，
+ * 留出的连接用于导入过程中的短时间操作(例如 {@link SegmentIdAllocator} 预留号段)，连接池被预算占满时也能执行
+ * 每个多线程事务开始前一次性预留(子线程数 + 主线程)个连接，事务结束后归还，预留不到时排队；
+ * 可恢复导入写入分片前按子线程数预留，主线程只在写入前后使用连接，不占用预算
+ * 多线程事务至少需要一个子线程和主线程，连接池小于3时预算不够，启动时失败
+ * 同时执行的事务占用的连接不会超过连接池，不会出现每个事务都只拿到部分连接、相互等待直到连接池超时的情况，
+ * 因此主线程池大小乘以(parallelism + 1)超过连接池时多出来的导入在这里排队，而不是在连接池中等待超时
+ * @author luckykuang
+ * @date 2023/12/6 10:00
+ */
+@Slf4j
+@Component
+public class ConnectionBudget {
+    /**
+     * 主线程、一个子线程和留出的一个连接
+     */
+    static final int MIN_POOL_SIZE = 3;
+
+    private final int size;
+    private final Semaphore semaphore;
+
+    public ConnectionBudget(DataSource dataSource) throws SQLException {
+        if (dataSource.isWrapperFor(HikariDataSource.class)) {
+            int pool = dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+            if (pool < MIN_POOL_SIZE) {
+                throw new IllegalStateException("连接池大小" + pool + "不足，多线程事务至少需要" + MIN_POOL_SIZE + "个连接");
+            }
+            this.size = pool - 1;
+        } else {
+            this.size = Integer.MAX_VALUE;
+        }
+        // 公平排队，需要连接多的事务不会一直被后来的小事务插队
+        this.semaphore = new Semaphore(size, true);
+        log.info("多线程事务连接预算：{}", size);
+    }
+
+    /**
+     * 一个多线程事务最多可以使用的子线程数，至少给主线程留一个连接
+     * @param workers 期望的子线程数
+     */
+    public int maxWorkers(int workers) {
+        return Math.max(1, Math.min(workers, size - 1));
+    }
+
+    /**
+     * 预留连接，不够时阻塞等待
+     * @param connections 连接数，超过预算总数时按总数预留
+     * @return 实际预留的连接数，事务结束后传给 {@link #release}
+     */
+    public int reserve(int connections) throws InterruptedException {
+        int reserved = Math.max(1, Math.min(connections, size));
+        semaphore.acquire(reserved);
+        return reserved;
+    }
+
+    public void release(int reserved) {
+        semaphore.release(reserved);
+    }
+}
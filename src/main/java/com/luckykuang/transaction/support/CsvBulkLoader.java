@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * 把一个分片编码为CSV后用数据库的批量导入写入：
+ *      MySQL：LOAD DATA LOCAL INFILE，通过驱动把内存中的CSV作为文件内容发送，不生成临时文件，连接需要开启allowLoadLocalInfile(见 SqlContext)且服务端开启local_infile
+ *      H2：写入本地临时文件后用CSVREAD读取，写入后删除，用于本地测试，只支持嵌入式或同一台机器上的H2
+ * 在调用方的连接和事务中执行，与其他写入方式一样统一提交或回滚
+ * MySQL的LOAD DATA LOCAL相当于IGNORE，主键重复或值不合法只产生警告并跳过或改写该行，写入数量与行数不一致或有警告时抛出异常，由调用方回滚
+ * CSV格式：逗号分隔、换行结束，字符串用双引号包围并用反斜杠转义双引号和反斜杠，NULL写为不加引号的\N
+ * @author luckykuang
+ * @date 2023/11/29 9:30
+ */
+public final class CsvBulkLoader {
+    private static final String NULL = "\\N";
+
+    private CsvBulkLoader(){}
+
+    /**
+     * 批量导入
+     * @param connection 当前连接
+     * @param table 表名
+     * @param columns 列名
+     * @param rows 数据
+     * @param values 一行数据按列顺序的值，数字原样写入，其余按字符串写入
+     * @return 写入数量
+     * @throws SQLException
+     */
+    public static <T> int load(Connection connection, String table, List<String> columns, List<T> rows,
+                               Function<T, Object[]> values) throws SQLException {
+        return load(connection, table, columns, rows.size(), i -> values.apply(rows.get(i)));
+    }
+
+    /**
+     * 批量导入，按行号读取数据，用于按列存储的数据
+     * @param connection 当前连接
+     * @param table 表名
+     * @param columns 列名
+     * @param rows 行数
+     * @param values 第i行按列顺序的值，数字原样写入，其余按字符串写入
+     * @return 写入数量，等于行数
+     * @throws SQLException 写入数量与行数不一致或有警告时同样抛出
+     */
+    public static int load(Connection connection, String table, List<String> columns, int rows,
+                           IntFunction<Object[]> values) throws SQLException {
+        byte[] csv = encode(rows, values);
+        String product = connection.getMetaData().getDatabaseProductName();
+        if ("MySQL".equalsIgnoreCase(product)) {
+            return MySql.load(connection, table, columns, rows, csv);
+        }
+        if ("H2".equalsIgnoreCase(product)) {
+            return H2.load(connection, table, columns, rows, csv);
+        }
+        throw new SQLFeatureNotSupportedException("不支持批量导入的数据库：" + product);
+    }
+
+    /**
+     * 检查写入数量和警告，部分行被跳过或改写时整个分片视为失败
+     */
+    static int verify(Statement statement, int count, int rows) throws SQLException {
+        SQLWarning warning = statement.getWarnings();
+        if (count != rows || warning != null) {
+            SQLException e = new SQLException("批量导入写入数量与行数不一致或有警告：应写入" + rows + "行，实际" + count + "行");
+            if (warning != null) {
+                e.setNextException(warning);
+            }
+            throw e;
+        }
+        return count;
+    }
+
+    static <T> byte[] encode(List<T> rows, Function<T, Object[]> values) {
+        return encode(rows.size(), i -> values.apply(rows.get(i)));
+    }
+
+    static byte[] encode(int rows, IntFunction<Object[]> values) {
+        StringBuilder csv = new StringBuilder(rows * 32);
+        for (int row = 0; row < rows; row++) {
+            Object[] fields = values.apply(row);
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    csv.append(',');
+                }
+                Object value = fields[i];
+                if (value == null) {
+                    csv.append(NULL);
+                } else if (value instanceof Number) {
+                    csv.append(value);
+                } else {
+                    String text = value.toString();
+                    csv.append('"');
+                    for (int j = 0; j < text.length(); j++) {
+                        char c = text.charAt(j);
+                        if (c == '"' || c == '\\') {
+                            csv.append('\\');
+                        }
+                        csv.append(c);
+                    }
+                    csv.append('"');
+                }
+            }
+            csv.append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 单独的类，没有MySQL驱动时不会加载
+     */
+    private static final class MySql {
+
+        static int load(Connection connection, String table, List<String> columns, int rows, byte[] csv)
+                throws SQLException {
+            String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + table
+                    + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY '\\\\'"
+                    + " LINES TERMINATED BY '\\n' (" + String.join(", ", columns) + ")";
+            try (Statement statement = connection.createStatement()) {
+                StatementCancelInterceptor.register(statement);
+                statement.unwrap(JdbcStatement.class).setLocalInfileInputStream(new ByteArrayInputStream(csv));
+                return verify(statement, statement.executeUpdate(sql), rows);
+            }
+        }
+    }
+
+    private static final class H2 {
+        /**
+         * 选项之间用空格分隔，选项值中的反斜杠本身也要用反斜杠转义
+         */
+        private static final String OPTIONS = "charset=UTF-8 fieldSeparator=, fieldDelimiter=\" escape=\\\\ nullString=\\\\N";
+
+        static int load(Connection connection, String table, List<String> columns, int rows, byte[] csv)
+                throws SQLException {
+            Path file;
+            try {
+                file = Files.createTempFile("csv-bulk-", ".csv");
+                Files.write(file, csv);
+            } catch (IOException e) {
+                throw new SQLException("写入临时文件失败", e);
+            }
+            try (Statement statement = connection.createStatement()) {
+                StatementCancelInterceptor.register(statement);
+                String path = file.toAbsolutePath().toString().replace("'", "''");
+                return verify(statement, statement.executeUpdate("INSERT INTO " + table
+                        + " (" + String.join(", ", columns) + ")"
+                        + " SELECT * FROM CSVREAD('" + path + "', '" + String.join(",", columns) + "', '" + OPTIONS + "')"),
+                        rows);
+            } finally {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+/**
+ * 子线程的提交方式
+ * @author luckykuang
+ * @date 2023/11/8 9:40
+ */
+public enum DispatchMode {
+    /**
+     * ExecutorService.invokeAll()，等待所有子线程全部执行完成
+     */
+    INVOKE_ALL,
+    /**
+     * ExecutorService.submit()，逐个获取结果
+     */
+    SUBMIT,
+    /**
+     * CompletableFuture.supplyAsync()，allOf()等待全部完成
+     */
+    COMPLETABLE_FUTURE
+}
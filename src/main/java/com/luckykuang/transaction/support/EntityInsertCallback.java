@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.baomidou.mybatisplus.annotation.FieldStrategy;
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.core.incrementer.DefaultIdentifierGenerator;
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import com.baomidou.mybatisplus.core.metadata.TableFieldInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.apache.ibatis.type.UnknownTypeHandler;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 多线程写入任意MyBatis-Plus实体：按实体的表信息生成单行insert，不需要为每张表编写批量insert
+ * insert语句按实体类只生成一次；每个子线程连接只预编译一次，之后的分片复用同一个语句，按flushSize分批执行，子线程退出时关闭
+ * 参数按字段配置的TypeHandler(未配置时按属性类型从TypeHandlerRegistry查找)绑定，与mapper写入的值相同
+ * 主键列同样写入，为null时按主键类型生成：AUTO由AUTO_INCREMENT生成，ASSIGN_ID/ASSIGN_UUID与MyBatis-Plus一样由IdentifierGenerator生成并回填；
+ * 不会执行MyBatis-Plus的自动填充
+ * @author luckykuang
+ * @date 2023/12/4 18:00
+ */
+@Slf4j
+public class EntityInsertCallback<T> implements TransactionCallback<T> {
+    private static final Map<Class<?>, Insert> INSERTS = new ConcurrentHashMap<>();
+
+    private final TableInfo tableInfo;
+    private final IdentifierGenerator identifierGenerator;
+    private final Insert insert;
+    private final String sql;
+    private final int flushSize;
+    /**
+     * 每个子线程连接上预编译的语句，子线程退出时由 {@link #release} 关闭并移除
+     */
+    private final Map<Connection, PreparedStatement> statements = new ConcurrentHashMap<>();
+
+    /**
+     * 表信息中的列和对应属性的绑定方式，与表名无关，按实体类缓存
+     */
+    private record Insert(String columns, String placeholders, List<Binding> bindings, JdbcType jdbcTypeForNull) {
+    }
+
+    /**
+     * 一列的属性、TypeHandler及JdbcType
+     */
+    private record Binding(String property, TypeHandler<Object> typeHandler, JdbcType jdbcType) {
+    }
+
+    public EntityInsertCallback(Class<T> entityClass, int flushSize) {
+        this(entityClass, null, flushSize);
+    }
+
+    /**
+     * @param entityClass 实体类，必须已经有对应的BaseMapper
+     * @param table 写入的表，为null时使用实体的表，不能来自外部输入
+     * @param flushSize 每批执行的行数
+     * @throws IllegalArgumentException 没有表信息，或者主键类型无法按主键生成方式生成
+     */
+    public EntityInsertCallback(Class<T> entityClass, String table, int flushSize) {
+        this.tableInfo = TableInfoHelper.getTableInfo(entityClass);
+        if (tableInfo == null) {
+            throw new IllegalArgumentException("没有找到实体的表信息：" + entityClass.getName());
+        }
+        checkIdType(tableInfo);
+        IdentifierGenerator generator = GlobalConfigUtils.getGlobalConfig(configuration(tableInfo))
+                .getIdentifierGenerator();
+        this.identifierGenerator = generator != null ? generator : DefaultIdentifierGenerator.getInstance();
+        this.insert = INSERTS.computeIfAbsent(entityClass, key -> insertOf(tableInfo));
+        this.sql = "INSERT INTO " + (table != null ? table : tableInfo.getTableName())
+                + " (" + insert.columns() + ") VALUES (" + insert.placeholders() + ")";
+        this.flushSize = Math.max(1, flushSize);
+    }
+
+    /**
+     * 初始化表信息时使用的Configuration，TypeHandler和IdentifierGenerator都从中获取，MyBatis-Plus没有提供其他获取方式
+     */
+    @SuppressWarnings("deprecation")
+    private static Configuration configuration(TableInfo tableInfo) {
+        return tableInfo.getConfiguration();
+    }
+
+    /**
+     * ASSIGN_UUID只能生成字符串主键，ASSIGN_ID只能生成数字或字符串主键
+     */
+    private static void checkIdType(TableInfo tableInfo) {
+        if (!tableInfo.havePK()) {
+            return;
+        }
+        Class<?> keyType = tableInfo.getKeyType();
+        boolean supported = switch (tableInfo.getIdType()) {
+            case ASSIGN_UUID -> keyType == String.class;
+            case ASSIGN_ID -> keyType == Long.class || keyType == Integer.class || keyType == BigInteger.class
+                    || keyType == BigDecimal.class || keyType == String.class;
+            default -> true;
+        };
+        if (!supported) {
+            throw new IllegalArgumentException("主键生成方式" + tableInfo.getIdType() + "不支持主键类型"
+                    + keyType.getName() + "：" + tableInfo.getEntityType().getName());
+        }
+    }
+
+    private static Insert insertOf(TableInfo tableInfo) {
+        Configuration configuration = configuration(tableInfo);
+        List<String> columns = new ArrayList<>();
+        List<Binding> bindings = new ArrayList<>();
+        if (tableInfo.havePK()) {
+            columns.add(tableInfo.getKeyColumn());
+            bindings.add(new Binding(tableInfo.getKeyProperty(),
+                    typeHandler(configuration, tableInfo.getKeyType(), null, null), null));
+        }
+        for (TableFieldInfo field : tableInfo.getFieldList()) {
+            if (field.getInsertStrategy() != FieldStrategy.NEVER) {
+                columns.add(field.getColumn());
+                bindings.add(new Binding(field.getProperty(), typeHandler(configuration, field.getPropertyType(),
+                        field.getTypeHandler(), field.getJdbcType()), field.getJdbcType()));
+            }
+        }
+        return new Insert(String.join(", ", columns), String.join(", ", Collections.nCopies(columns.size(), "?")),
+                List.copyOf(bindings), configuration.getJdbcTypeForNull());
+    }
+
+    /**
+     * 字段指定了TypeHandler时使用指定的，否则与mapper一样按属性类型和JdbcType查找
+     */
+    @SuppressWarnings("unchecked")
+    private static TypeHandler<Object> typeHandler(Configuration configuration, Class<?> javaType,
+                                                   Class<? extends TypeHandler<?>> handlerClass, JdbcType jdbcType) {
+        TypeHandlerRegistry registry = configuration.getTypeHandlerRegistry();
+        TypeHandler<?> typeHandler;
+        if (handlerClass != null && handlerClass != UnknownTypeHandler.class) {
+            typeHandler = registry.getMappingTypeHandler(handlerClass);
+            if (typeHandler == null) {
+                typeHandler = registry.getInstance(javaType, handlerClass);
+            }
+        } else {
+            typeHandler = registry.getTypeHandler(javaType, jdbcType);
+            if (typeHandler == null) {
+                typeHandler = registry.getUnknownTypeHandler();
+            }
+        }
+        return (TypeHandler<Object>) typeHandler;
+    }
+
+    /**
+     * 主键为null时按ASSIGN_ID/ASSIGN_UUID生成并回填，与MyBatis-Plus的insert相同
+     */
+    private void assignKey(T row) {
+        IdType idType = tableInfo.getIdType();
+        if (idType != IdType.ASSIGN_ID && idType != IdType.ASSIGN_UUID
+                || tableInfo.getPropertyValue(row, tableInfo.getKeyProperty()) != null) {
+            return;
+        }
+        Object key;
+        if (idType == IdType.ASSIGN_UUID) {
+            key = identifierGenerator.nextUUID(row);
+        } else {
+            Number id = identifierGenerator.nextId(row);
+            Class<?> keyType = tableInfo.getKeyType();
+            if (keyType == String.class) {
+                key = id.toString();
+            } else if (keyType == Integer.class) {
+                key = id.intValue();
+            } else if (keyType == BigInteger.class) {
+                key = BigInteger.valueOf(id.longValue());
+            } else if (keyType == BigDecimal.class) {
+                key = BigDecimal.valueOf(id.longValue());
+            } else {
+                key = id.longValue();
+            }
+        }
+        tableInfo.setPropertyValue(row, tableInfo.getKeyProperty(), key);
+    }
+
+    @Override
+    public int write(SqlSession sqlSession, List<T> chunk) throws SQLException {
+        return insert(sqlSession.getConnection(), chunk);
+    }
+
+    @Override
+    public void release(SqlSession sqlSession) {
+        close(sqlSession.getConnection());
+    }
+
+    /**
+     * 关闭指定连接上预编译的语句，之后在该连接上写入时重新预编译
+     */
+    public void close(Connection connection) {
+        PreparedStatement statement = statements.remove(connection);
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            log.warn("关闭预编译语句异常", e);
+        }
+    }
+
+    /**
+     * 在指定连接上写入一个分片，同一连接的多个分片复用预编译的语句
+     * @return 写入数量
+     */
+    public int insert(Connection connection, List<T> chunk) throws SQLException {
+        PreparedStatement statement = statements.get(connection);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(connection, statement);
+        }
+        StatementCancelInterceptor.register(statement);
+        List<Binding> bindings = insert.bindings();
+        boolean assignKey = tableInfo.havePK();
+        int count = 0;
+        int pending = 0;
+        try {
+            for (T row : chunk) {
+                if (assignKey) {
+                    assignKey(row);
+                }
+                for (int i = 0; i < bindings.size(); i++) {
+                    Binding binding = bindings.get(i);
+                    Object value = tableInfo.getPropertyValue(row, binding.property());
+                    JdbcType jdbcType = value == null && binding.jdbcType() == null
+                            ? insert.jdbcTypeForNull() : binding.jdbcType();
+                    binding.typeHandler().setParameter(statement, i + 1, value, jdbcType);
+                }
+                statement.addBatch();
+                if (++pending >= flushSize) {
+                    count += BatchResults.count(statement.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                count += BatchResults.count(statement.executeBatch());
+            }
+            return count;
+        } catch (SQLException | RuntimeException e) {
+            // 失败后可能重试，不能留下未执行的参数
+            try {
+                statement.clearBatch();
+            } catch (SQLException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 分片写入许可的公平分配：每个多线程事务一个等待队列，许可按事务轮流分配，而不是先到先得
+ * 子线程多、分片多的大事务不会占满所有许可，同时执行的小事务每一轮都能写入一个分片，很快完成
+ * 可以按租户限制同时写入的分片数，超过的租户即使排在前面也跳过
+ * 许可总数由 {@link ConcurrencyLimiter} 决定
+ * 只有已经持有连接的子线程才能排队：许可只分配给拿到后能立即写入的子线程，
+ * 否则轮到的子线程持有许可等待连接池，而其他事务持有连接的子线程在这里等待许可，相互等待直到连接池超时
+ * 使用 {@link ReentrantLock} 等待，子线程是虚拟线程时等待期间不会占住载体线程
+ * @author luckykuang
+ * @date 2023/12/4 10:00
+ */
+@Component
+public class FairChunkScheduler {
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 有子线程在等待许可的事务，按轮到的先后排列
+     */
+    private final Deque<Ticket> ring = new ArrayDeque<>();
+    private final Map<String, Integer> tenantInFlight = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition grantedCondition = lock.newCondition();
+
+    @Resource
+    private ConcurrencyLimiter concurrencyLimiter;
+    @Resource
+    private TransactionProperties transactionProperties;
+
+    /**
+     * 一个多线程事务的等待队列
+     */
+    public static final class Ticket {
+        private final String tenant;
+        private int waiting;
+        private int granted;
+
+        private Ticket(String tenant) {
+            this.tenant = tenant;
+        }
+
+        public String getTenant() {
+            return tenant;
+        }
+    }
+
+    public Ticket open(String tenant) {
+        return new Ticket(tenant);
+    }
+
+    /**
+     * 获取一个分片的写入许可，轮到该事务并且有空闲许可时返回，调用前必须已经取得写入使用的连接
+     * @param ticket 所属事务
+     * @param cancelled 等待期间定期检查，返回true时放弃等待
+     * @return 是否获取到许可，获取到的必须调用 {@link #release}
+     */
+    public boolean acquire(Ticket ticket, BooleanSupplier cancelled) throws InterruptedException {
+        lock.lock();
+        try {
+            if (ticket.waiting++ == 0) {
+                ring.addLast(ticket);
+            }
+            boolean acquired = false;
+            try {
+                while (true) {
+                    grant();
+                    if (ticket.granted > 0) {
+                        ticket.granted--;
+                        acquired = true;
+                        return true;
+                    }
+                    if (cancelled.getAsBoolean()) {
+                        return false;
+                    }
+                    grantedCondition.awaitNanos(WAIT_NANOS);
+                }
+            } finally {
+                if (--ticket.waiting == 0) {
+                    ring.remove(ticket);
+                }
+                if (!acquired && ticket.granted > ticket.waiting) {
+                    // 已经分配给该事务但没有子线程领取，归还
+                    ticket.granted--;
+                    free(ticket, 0, 0, false);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还许可并反馈本次写入结果，参数见 {@link ConcurrencyLimiter#release}
+     */
+    public void release(Ticket ticket, int rows, long nanos, boolean overloaded) {
+        lock.lock();
+        try {
+            free(ticket, rows, nanos, overloaded);
+            grant();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void free(Ticket ticket, int rows, long nanos, boolean overloaded) {
+        tenantInFlight.computeIfPresent(ticket.tenant, (tenant, count) -> count > 1 ? count - 1 : null);
+        concurrencyLimiter.release(rows, nanos, overloaded);
+    }
+
+    /**
+     * 按顺序找到第一个有子线程在等待且租户未超限的事务，分配一个许可后移到队尾
+     */
+    private void grant() {
+        boolean granted = false;
+        while (true) {
+            Ticket next = null;
+            for (Iterator<Ticket> iterator = ring.iterator(); iterator.hasNext(); ) {
+                Ticket ticket = iterator.next();
+                if (ticket.granted < ticket.waiting && !tenantLimited(ticket.tenant)) {
+                    iterator.remove();
+                    next = ticket;
+                    break;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            if (!concurrencyLimiter.tryAcquire()) {
+                ring.addFirst(next);
+                break;
+            }
+            next.granted++;
+            tenantInFlight.merge(next.tenant, 1, Integer::sum);
+            ring.addLast(next);
+            granted = true;
+        }
+        if (granted) {
+            grantedCondition.signalAll();
+        }
+    }
+
+    private boolean tenantLimited(String tenant) {
+        TransactionProperties.Fairness fairness = transactionProperties.getFairness();
+        int limit = fairness.getTenantMaxInFlight().getOrDefault(tenant, fairness.getDefaultTenantMaxInFlight());
+        return limit > 0 && tenantInFlight.getOrDefault(tenant, 0) >= limit;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Optional;
+
+/**
+ * 可恢复导入的检查点日志，每个导入一个文件，只追加写入，每行一条记录：
+ *      START rows chunkSize firstId payloadHash：开始导入，记录总行数、分片大小、预留的第一个主键和数据摘要，写入后强制刷盘
+ *      CHUNK index：第index个分片已提交到临时表
+ *      SWAPPING：所有分片已提交，即将替换，替换之前强制刷盘；之后再恢复时临时表不存在说明已经替换
+ *      PUBLISHED：临时表已发布，写入后强制刷盘
+ * 分片按主键范围幂等写入，CHUNK记录丢失时只会在恢复时重新写入一次，不需要刷盘
+ * 宕机时最后一行可能不完整，读取时忽略没有换行结尾的记录
+ * @author luckykuang
+ * @date 2023/12/4 16:00
+ */
+public class ImportJournal implements Closeable {
+    private static final String START = "START";
+    private static final String CHUNK = "CHUNK";
+    private static final String SWAPPING = "SWAPPING";
+    private static final String PUBLISHED = "PUBLISHED";
+
+    private final FileChannel channel;
+
+    /**
+     * 日志记录的导入进度
+     * @param rows 总行数
+     * @param chunkSize 分片大小，恢复时必须按相同的边界切分
+     * @param firstId 第一行的主键，第i行的主键为firstId + i
+     * @param payloadHash 数据摘要，恢复时与重新提交的数据比较，旧版本的日志没有时为null
+     * @param chunks 已提交的分片
+     * @param swapping 是否已经开始替换
+     * @param published 是否已发布
+     */
+    public record State(int rows, int chunkSize, long firstId, String payloadHash, BitSet chunks,
+                        boolean swapping, boolean published) {
+
+        State withSwapping() {
+            return new State(rows, chunkSize, firstId, payloadHash, chunks, true, published);
+        }
+
+        State withPublished() {
+            return new State(rows, chunkSize, firstId, payloadHash, chunks, swapping, true);
+        }
+    }
+
+    private ImportJournal(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 读取导入进度
+     * @return 没有开始记录时为空
+     */
+    public static Optional<State> read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        String content = Files.readString(file, StandardCharsets.UTF_8);
+        State state = null;
+        int start = 0;
+        for (int end = content.indexOf('\n'); end >= 0; start = end + 1, end = content.indexOf('\n', start)) {
+            String[] fields = content.substring(start, end).trim().split(" ");
+            switch (fields[0]) {
+                case START -> state = new State(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                        Long.parseLong(fields[3]), fields.length > 4 ? fields[4] : null, new BitSet(), false, false);
+                case CHUNK -> {
+                    if (state != null) {
+                        state.chunks().set(Integer.parseInt(fields[1]));
+                    }
+                }
+                case SWAPPING -> {
+                    if (state != null) {
+                        state = state.withSwapping();
+                    }
+                }
+                case PUBLISHED -> {
+                    if (state != null) {
+                        state = state.withPublished();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return Optional.ofNullable(state);
+    }
+
+    public static ImportJournal open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            // 去掉宕机留下的不完整记录，避免和之后追加的记录连在一起
+            channel.truncate(completeLength(file));
+            channel.position(channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ImportJournal(channel);
+    }
+
+    private static long completeLength(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] != '\n') {
+            length--;
+        }
+        return length;
+    }
+
+    public synchronized void start(int rows, int chunkSize, long firstId, String payloadHash) throws IOException {
+        append(START + ' ' + rows + ' ' + chunkSize + ' ' + firstId + ' ' + payloadHash, true);
+    }
+
+    public synchronized void chunk(int index) throws IOException {
+        append(CHUNK + " " + index, false);
+    }
+
+    /**
+     * 刷盘同时保证之前的CHUNK记录都已落盘
+     */
+    public synchronized void swapping() throws IOException {
+        append(SWAPPING, true);
+    }
+
+    public synchronized void published() throws IOException {
+        append(PUBLISHED, true);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void append(String record, boolean force) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((record + '\n').getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(true);
+        }
+    }
+}
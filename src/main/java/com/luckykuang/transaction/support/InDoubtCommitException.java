@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.sql.SQLException;
+
+/**
+ * 分片事务已决定提交，但部分分支重试后仍未提交成功，后台继续重试直到成功
+ * 这些分支提交前数据不可见且持有行锁，不能当作回滚处理，也不能重新写入
+ * @author luckykuang
+ * @date 2023/12/6 10:00
+ */
+public class InDoubtCommitException extends SQLException {
+
+    public InDoubtCommitException(String reason, Throwable cause) {
+        super(reason, cause);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 基于迭代器的分片来源，边读取边写入，内存中只保留正在写入的分片
+ * 迭代器本身不需要线程安全，领取分片时加锁顺序读取
+ * @author luckykuang
+ * @date 2023/11/15 14:20
+ */
+public class IteratorChunkSource<T> implements ChunkSource<T> {
+    private final Iterator<T> iterator;
+    private boolean exhausted;
+
+    public IteratorChunkSource(Iterator<T> iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public synchronized List<T> next(int maxRows) {
+        if (exhausted) {
+            return Collections.emptyList();
+        }
+        List<T> chunk = new ArrayList<>(maxRows);
+        while (chunk.size() < maxRows && iterator.hasNext()) {
+            chunk.add(iterator.next());
+        }
+        if (chunk.size() < maxRows) {
+            exhausted = true;
+        }
+        return chunk;
+    }
+
+    @Override
+    public synchronized boolean isExhausted() {
+        return exhausted;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 基于内存集合的分片来源，分片为原集合的视图，不复制数据
+ * 指定分组时分片不跨越分组边界，同一分组的数据需要在集合中相邻
+ * @author luckykuang
+ * @date 2023/11/9 14:15
+ */
+public class ListChunkSource<T> implements ChunkSource<T> {
+    private final List<T> data;
+    /**
+     * 每个分组的起始下标(第一个分组除外)，升序
+     */
+    private final int[] boundaries;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    public ListChunkSource(List<T> data) {
+        this.data = data;
+        this.boundaries = new int[0];
+    }
+
+    /**
+     * @param data 数据，同一分组的数据相邻
+     * @param group 数据所属的分组
+     */
+    public ListChunkSource(List<T> data, Function<? super T, ?> group) {
+        this.data = data;
+        int[] starts = new int[data.size()];
+        int count = 0;
+        Object previous = null;
+        for (int i = 0; i < data.size(); i++) {
+            Object current = group.apply(data.get(i));
+            if (i > 0 && !Objects.equals(previous, current)) {
+                starts[count++] = i;
+            }
+            previous = current;
+        }
+        this.boundaries = Arrays.copyOf(starts, count);
+    }
+
+    @Override
+    public List<T> next(int maxRows) {
+        int size = data.size();
+        int from = cursor.getAndUpdate(current -> current >= size ? current : end(current, maxRows, size));
+        if (from >= size) {
+            return Collections.emptyList();
+        }
+        return data.subList(from, end(from, maxRows, size));
+    }
+
+    /**
+     * 从from开始的分片结束下标：不超过maxRows行，也不超过下一个分组的起始下标
+     */
+    private int end(int from, int maxRows, int size) {
+        int end = from + Math.min(maxRows, size - from);
+        int index = Arrays.binarySearch(boundaries, from + 1);
+        int next = index >= 0 ? index : -index - 1;
+        return next < boundaries.length ? Math.min(end, boundaries[next]) : end;
+    }
+
+    @Override
+    public int totalRows() {
+        return data.size();
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return cursor.get() >= data.size();
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.SqlContext;
+import com.luckykuang.transaction.config.TransactionProperties;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.SqlSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 多线程事务模板
+ * 思路：
+ *      主线程在自己的连接上执行前置操作，再开启多个子线程，每个子线程获取自己的连接并开启事务，从数据来源中领取分片写入，
+ *      所有子线程都不提交；全部子线程执行完毕且没有任何报错时，主线程统一提交所有连接，任意一个报错则全部回滚。
+ * 统一提交是逐个提交各连接，不是原子的：提交第N个连接失败时前面的连接已经生效，其余连接回滚，
+ * 此时抛出 {@link PartialCommitException}，进度为 {@link TransactionProgress.State#PARTIALLY_COMMITTED}，需要调用方处理。
+ * 需要跨连接原子提交时使用 {@link ShardedTransactionTemplate} 的两阶段提交。
+ * 子线程之间互不等待，不会因为线程池被占满而相互阻塞；子线程数量不超过 {@link TransactionProperties#getParallelism()}。
+ * 连接：事务开始前从 {@link ConnectionBudget} 预留全部子线程和主线程的连接，子线程先取得连接再排队领取写入许可，
+ *      持有许可的子线程不会再等待连接池，多个事务同时执行时不会出现持有连接的等许可、持有许可的等连接。
+ * 分片大小由 {@link AdaptiveChunkSizer} 根据数据量和写入耗时动态调整。
+ * @author luckykuang
+ * @date 2023/11/8 10:05
+ */
+@Slf4j
+@Component
+public class MultiThreadTransactionTemplate {
+
+    @Resource
+    private SqlContext sqlContext;
+    @Resource
+    private TransactionProperties transactionProperties;
+    @Resource
+    private ExecutorService transactionExecutor;
+    @Resource
+    private ExecutorService transactionCoordinator;
+    @Resource
+    private TransactionMetrics transactionMetrics;
+    @Resource
+    private ConcurrencyLimiter concurrencyLimiter;
+    @Resource
+    private FairChunkScheduler fairChunkScheduler;
+    @Resource
+    private ConnectionBudget connectionBudget;
+    @Autowired(required = false)
+    private List<TransactionListener> transactionListeners = Collections.emptyList();
+
+    /**
+     * 在主线程池中异步执行，调用方线程立即返回
+     * 任务中可以直接调用 {@link #execute} 同步等待子线程，占用的是主线程池的线程
+     * @param task 主线程逻辑
+     * @return 任务结果
+     */
+    public <R> CompletableFuture<R> async(Callable<R> task) {
+        Callable<R> tenantTask = TenantContext.wrap(task);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return tenantTask.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, transactionCoordinator);
+    }
+
+    /**
+     * 执行多线程事务
+     * @param data 数据
+     * @param mode 子线程提交方式
+     * @param callback 前置操作及分片写入
+     * @return 写入总数量
+     * @throws SQLException 任意一步失败，所有连接回滚后抛出；提交过程中失败时为 {@link PartialCommitException}
+     */
+    public <T> int execute(List<T> data, DispatchMode mode, TransactionCallback<T> callback) throws SQLException {
+        return execute(new ListChunkSource<>(data), mode, callback);
+    }
+
+    /**
+     * 多线程事务写入任意MyBatis-Plus实体到实体对应的表，按实体的表信息生成insert，见 {@link EntityInsertCallback}
+     * @param entityClass 实体类
+     * @param data 数据
+     * @param mode 子线程提交方式
+     * @return 写入总数量
+     * @throws SQLException 任意一步失败，所有连接回滚后抛出；提交过程中失败时为 {@link PartialCommitException}
+     */
+    public <T> int insertAll(Class<T> entityClass, List<T> data, DispatchMode mode) throws SQLException {
+        return execute(data, mode, new EntityInsertCallback<>(entityClass, transactionProperties.getBatch().getFlushSize()));
+    }
+
+    /**
+     * 执行多线程事务
+     * @param source 分片数据来源
+     * @param mode 子线程提交方式
+     * @param callback 前置操作及分片写入
+     * @return 写入总数量
+     * @throws SQLException 任意一步失败，所有连接回滚后抛出；提交过程中失败时为 {@link PartialCommitException}
+     */
+    public <T> int execute(ChunkSource<T> source, DispatchMode mode, TransactionCallback<T> callback) throws SQLException {
+        return execute(source, mode, callback, new TransactionProgress());
+    }
+
+    /**
+     * 执行多线程事务并记录进度
+     * @param source 分片数据来源
+     * @param mode 子线程提交方式
+     * @param callback 前置操作及分片写入
+     * @param progress 执行进度，结束时记录提交或回滚
+     * @return 写入总数量
+     * @throws SQLException 任意一步失败，所有连接回滚后抛出；提交过程中失败时为 {@link PartialCommitException}
+     */
+    public <T> int execute(ChunkSource<T> source, DispatchMode mode, TransactionCallback<T> callback,
+                           TransactionProgress progress) throws SQLException {
+        progress.start();
+        TransactionGroup group = new TransactionGroup(transactionProperties.getIsolation());
+        TransactionProperties.Chunk chunk = transactionProperties.getChunk();
+        int workers = connectionBudget.maxWorkers(transactionProperties.getParallelism());
+        int totalRows = source.totalRows();
+        if (totalRows >= 0) {
+            // 数据量较少时不需要开启过多子线程
+            workers = Math.min(workers, Math.max(1, (totalRows + chunk.getMinSize() - 1) / Math.max(1, chunk.getMinSize())));
+        }
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(chunk, totalRows, workers);
+        FairChunkScheduler.Ticket ticket = fairChunkScheduler.open(TenantContext.current());
+        int total = 0;
+        int reserved = 0;
+        long start = System.nanoTime();
+        long prepared = start;
+        try {
+            reserved = connectionBudget.reserve(workers + 1);
+            // 排队等待连接预算的时间不计入前置操作
+            start = System.nanoTime();
+            // 主线程连接执行前置操作，例如先做删除操作
+            callback.prepare(group.join(sqlContext.getSqlSession()));
+            prepared = System.nanoTime();
+            transactionMetrics.prepare(prepared - start);
+            List<Callable<Integer>> tasks = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                tasks.add(() -> work(group, source, sizer, callback, progress, ticket));
+            }
+            total = dispatch(mode, tasks, group);
+        } catch (Exception e) {
+            group.fail(e);
+        }
+        // 等待已经开始执行的子线程退出，未开始的子线程不会再执行
+        group.close();
+        long awaited = System.nanoTime();
+        transactionMetrics.await(awaited - prepared);
+        if (!group.isFailed() && !source.isExhausted()) {
+            group.fail(new SQLException("存在未写入的分片"));
+        }
+        try {
+            complete(group, callback);
+        } finally {
+            connectionBudget.release(reserved);
+        }
+        transactionMetrics.complete(!group.isFailed(), total, System.nanoTime() - awaited);
+        Throwable failure = group.getFailure();
+        if (group.isPartiallyCommitted()) {
+            progress.finish(TransactionProgress.State.PARTIALLY_COMMITTED, failure);
+            log.error("多线程事务部分提交", failure);
+            throw new PartialCommitException("部分连接已提交，其余连接已回滚，数据不完整", failure);
+        }
+        progress.finish(failure == null, failure);
+        if (failure != null) {
+            log.info("多线程事务回滚", failure);
+            throw failure instanceof SQLException sqlException
+                    ? sqlException : new SQLException("多线程事务执行失败", failure);
+        }
+        log.info("多线程事务提交完毕，写入数量：{}", total);
+        return total;
+    }
+
+    private void complete(TransactionGroup group, TransactionCallback<?> callback) {
+        try {
+            if (!group.isFailed()) {
+                try {
+                    transactionListeners.forEach(TransactionListener::beforeCommit);
+                } catch (RuntimeException e) {
+                    group.fail(e);
+                }
+            }
+            group.complete();
+            if (!group.isFailed()) {
+                try {
+                    callback.afterCommit();
+                } catch (Exception e) {
+                    group.fail(e);
+                }
+            }
+        } finally {
+            boolean committed = !group.isFailed();
+            transactionListeners.forEach(listener -> listener.afterCompletion(committed));
+        }
+    }
+
+    private <T> int work(TransactionGroup group, ChunkSource<T> source, AdaptiveChunkSizer sizer,
+                         TransactionCallback<T> callback, TransactionProgress progress,
+                         FairChunkScheduler.Ticket ticket) throws Exception {
+        if (!group.enter()) {
+            return 0;
+        }
+        group.bind();
+        SqlSession sqlSession = null;
+        // 列表数据来源的分片只是原列表的视图，保留下来用于死锁后重新写入；流式来源不保留，死锁时整体回滚
+        List<List<T>> written = source.totalRows() >= 0 ? new ArrayList<>() : null;
+        try {
+            int count = 0;
+            while (!group.isFailed()) {
+                List<T> chunk = source.next(sizer.nextSize());
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                // 领取到分片后才取得连接，没有分片的子线程不占用连接；先取得连接再获取许可，许可只分配给能立即写入的子线程
+                if (sqlSession == null) {
+                    sqlSession = group.join(sqlContext.getSqlSession(callback.executorType(), callback.localInfile()));
+                }
+                // 写入每个分片前获取并发许可，数据库变慢时同时写入的分片数随之减少，多个事务之间轮流分配
+                if (!fairChunkScheduler.acquire(ticket, group::isFailed)) {
+                    break;
+                }
+                long start;
+                int number;
+                long bytes;
+                try {
+                    bytes = callback.estimateChunkBytes(chunk);
+                    start = System.nanoTime();
+                    number = write(group, sqlSession, chunk, written, callback);
+                } catch (Exception e) {
+                    fairChunkScheduler.release(ticket, 0, 0, TransientErrors.classify(e) != TransientErrors.Scope.NONE);
+                    throw e;
+                }
+                long nanos = System.nanoTime() - start;
+                fairChunkScheduler.release(ticket, chunk.size(), nanos, false);
+                sizer.record(chunk.size(), bytes, nanos);
+                transactionMetrics.chunk(chunk.size(), nanos);
+                if (number <= 0) {
+                    throw new SQLException("分片写入数量异常：" + number);
+                }
+                count += number;
+                progress.chunk(number);
+            }
+            return count;
+        } catch (Exception e) {
+            group.fail(e);
+            throw e;
+        } finally {
+            group.unbind();
+            if (sqlSession != null) {
+                release(sqlSession, callback);
+            }
+            group.rollbackIfFailed(sqlSession);
+            group.exit();
+        }
+    }
+
+    /**
+     * 子线程退出前释放回调缓存的资源，释放失败只记录日志，不影响事务结果
+     */
+    private <T> void release(SqlSession sqlSession, TransactionCallback<T> callback) {
+        try {
+            callback.release(sqlSession);
+        } catch (RuntimeException e) {
+            log.warn("释放子线程资源异常", e);
+        }
+    }
+
+    /**
+     * 写入一个分片，遇到临时错误时回滚后按随机退避时间重试：
+     * 只回滚了失败语句的，回滚到分片开始前的保存点重试该分片；整个事务被回滚的，重新写入该连接之前的所有分片
+     * 其他错误以及重试次数用完时直接抛出，由调用方回滚整个多线程事务
+     */
+    private <T> int write(TransactionGroup group, SqlSession sqlSession, List<T> chunk, List<List<T>> written,
+                          TransactionCallback<T> callback) throws Exception {
+        int maxAttempts = Math.max(1, transactionProperties.getRetry().getMaxAttempts());
+        if (maxAttempts == 1) {
+            return callback.write(sqlSession, chunk);
+        }
+        Connection connection = sqlSession.getConnection();
+        boolean replay = false;
+        for (int attempt = 1; ; attempt++) {
+            Savepoint savepoint = null;
+            try {
+                if (replay) {
+                    for (List<T> done : written) {
+                        callback.write(sqlSession, done);
+                    }
+                    replay = false;
+                }
+                savepoint = connection.setSavepoint();
+                int number = callback.write(sqlSession, chunk);
+                connection.releaseSavepoint(savepoint);
+                if (written != null) {
+                    written.add(chunk);
+                }
+                return number;
+            } catch (Exception e) {
+                TransientErrors.Scope scope = TransientErrors.classify(e);
+                if (scope == TransientErrors.Scope.TRANSACTION && written == null) {
+                    scope = TransientErrors.Scope.NONE;
+                }
+                if (scope == TransientErrors.Scope.NONE || attempt >= maxAttempts || group.isFailed()) {
+                    throw e;
+                }
+                if (scope == TransientErrors.Scope.STATEMENT && savepoint != null) {
+                    connection.rollback(savepoint);
+                } else if (written != null) {
+                    connection.rollback();
+                    replay = true;
+                } else {
+                    throw e;
+                }
+                sqlSession.clearCache();
+                transactionMetrics.retry(scope);
+                concurrencyLimiter.overloaded();
+                log.info("分片写入失败，第{}次重试：{}", attempt, e.getMessage());
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedException {
+        TransactionProperties.Retry retry = transactionProperties.getRetry();
+        long max = Math.min(retry.getMaxBackoff().toMillis(), retry.getBackoff().toMillis() << Math.min(attempt - 1, 20));
+        if (max > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(max + 1));
+        }
+    }
+
+    /**
+     * 提交子线程并等待完成，任意子线程失败时取消还未开始执行的子线程
+     */
+    private int dispatch(DispatchMode mode, List<Callable<Integer>> tasks, TransactionGroup group) throws Exception {
+        int total = 0;
+        switch (mode) {
+            case INVOKE_ALL -> {
+                // 此处等待所有的子线程全部执行完成，程序才会继续往下走
+                for (Future<Integer> future : transactionExecutor.invokeAll(tasks)) {
+                    total += count(future.get());
+                }
+            }
+            case SUBMIT -> {
+                List<Future<Integer>> futures = new ArrayList<>(tasks.size());
+                for (Callable<Integer> task : tasks) {
+                    futures.add(transactionExecutor.submit(task));
+                }
+                group.onFailure(() -> futures.forEach(future -> future.cancel(false)));
+                for (Future<Integer> future : futures) {
+                    total += count(future.get());
+                }
+            }
+            case COMPLETABLE_FUTURE -> {
+                List<CompletableFuture<Integer>> futures = new ArrayList<>(tasks.size());
+                for (Callable<Integer> task : tasks) {
+                    futures.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return task.call();
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, transactionExecutor));
+                }
+                group.onFailure(() -> futures.forEach(future -> future.cancel(false)));
+                // 等待所有异步任务完成(此处会阻塞，直到所有线程处理完成)
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+                for (CompletableFuture<Integer> future : futures) {
+                    total += count(future.join());
+                }
+            }
+        }
+        return total;
+    }
+
+    private int count(Integer number) {
+        log.info("处理数量：{}", number);
+        return number;
+    }
+}
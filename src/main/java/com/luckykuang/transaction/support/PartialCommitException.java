@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.sql.SQLException;
+
+/**
+ * 多线程事务提交过程中失败：部分连接已经提交，其余连接已回滚，已提交的数据无法撤回
+ * 调用方需要按业务重新写入或人工修复，不能当作整体回滚处理
+ * @author luckykuang
+ * @date 2023/12/5 11:00
+ */
+public class PartialCommitException extends SQLException {
+
+    public PartialCommitException(String reason, Throwable cause) {
+        super(reason, cause);
+    }
+}
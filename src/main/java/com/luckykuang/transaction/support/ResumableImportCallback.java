@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 可恢复导入回调，导入中断后会从头重新执行未完成的步骤，因此每一步都必须可以重复执行
+ * @author luckykuang
+ * @date 2023/12/4 16:00
+ */
+public interface ResumableImportCallback<T> {
+
+    /**
+     * 写入分片的会话执行器类型
+     */
+    default ExecutorType executorType() {
+        return ExecutorType.SIMPLE;
+    }
+
+    /**
+     * 写入分片时是否执行LOAD DATA LOCAL INFILE，是时写入的连接来自单独开启local_infile的连接池
+     */
+    default boolean localInfile() {
+        return false;
+    }
+
+    /**
+     * 一行数据的内容摘要，按顺序合并为整批数据的摘要记录到检查点日志，恢复时用于判断重新提交的数据是否相同
+     * 不能包含写入时才赋值的字段(例如主键)
+     */
+    default long contentHash(T row) {
+        return Objects.hashCode(row);
+    }
+
+    /**
+     * 第index行的内容摘要，默认取出该行后计算，数据不是按行存储时可以覆盖此方法，避免逐行创建对象
+     */
+    default long contentHash(List<T> rows, int index) {
+        return contentHash(rows.get(index));
+    }
+
+    /**
+     * 准备临时表，所有分片都已提交时不会调用，此时临时表可能已经被替换
+     * @param sqlSession 会话
+     * @param resume 是否为恢复执行，不是时需要先清除之前残留的同名临时表
+     * @throws Exception
+     */
+    void prepare(SqlSession sqlSession, boolean resume) throws Exception;
+
+    /**
+     * 预留rows个连续的主键，只在第一次执行时调用，结果记录到检查点日志中，恢复时沿用
+     * @param rows 总行数
+     * @return 第一个主键
+     * @throws Exception
+     */
+    long reserveIds(int rows) throws Exception;
+
+    /**
+     * 把分片写入临时表，主键从firstId开始按顺序递增，先删除该主键范围内已有的数据，重复写入同一分片结果不变
+     * @param sqlSession 会话，写入后由调用方提交
+     * @param chunk 分片数据
+     * @param firstId 分片第一行的主键
+     * @return 写入数量，小于等于0视为失败
+     * @throws Exception
+     */
+    int write(SqlSession sqlSession, List<T> chunk, long firstId) throws Exception;
+
+    /**
+     * 所有分片写入后原子发布临时表，已经发布过(临时表不存在)时清理后直接返回
+     * @param sqlSession 会话
+     * @throws Exception
+     */
+    void publish(SqlSession sqlSession) throws Exception;
+}
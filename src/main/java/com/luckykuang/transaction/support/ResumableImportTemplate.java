@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.SqlContext;
+import com.luckykuang.transaction.config.TransactionProperties;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.SqlSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * 可恢复导入模板
+ * 思路：
+ *      与 {@link MultiThreadTransactionTemplate} 不同，分片不在同一个事务中，每个分片写入临时表后立即提交，并记录到检查点日志，
+ *      全部分片写入后原子发布临时表。进程退出或请求超时后，客户端用同一个导入id重新提交数据，跳过日志中已提交的分片继续写入，
+ *      不需要从头开始；发布之前用户表不受影响，已发布的导入再次提交时直接返回。
+ * 分片按固定大小切分并预留连续的主键，恢复时按日志中的分片大小和主键切分，重复写入同一分片结果相同。
+ * 重新提交的数据按行数和内容摘要与第一次提交的比较，不一致时拒绝恢复。
+ * 替换临时表之前先在日志中记录开始替换并刷盘：之后再恢复时不再准备临时表，临时表不存在说明已经替换，只补记发布，
+ * 不会重新创建空的临时表替换掉已发布的数据。
+ * @author luckykuang
+ * @date 2023/12/4 16:00
+ */
+@Slf4j
+@Component
+public class ResumableImportTemplate {
+    private static final Pattern IMPORT_ID = Pattern.compile("[a-z0-9_]{1,32}");
+
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    @Resource
+    private SqlContext sqlContext;
+    @Resource
+    private TransactionProperties transactionProperties;
+    @Resource
+    private ExecutorService transactionExecutor;
+    @Resource
+    private TransactionMetrics transactionMetrics;
+    @Resource
+    private FairChunkScheduler fairChunkScheduler;
+    @Resource
+    private ConnectionBudget connectionBudget;
+    @Autowired(required = false)
+    private List<TransactionListener> transactionListeners = Collections.emptyList();
+
+    /**
+     * 执行或继续执行导入
+     * @param importId 导入id，只能包含小写字母、数字和下划线(临时表名由id生成，不区分大小写的数据库中大小写不同的id会冲突)，
+     *                 同一份数据重新提交时必须使用相同的id
+     * @param rows 全部数据，恢复时必须与第一次提交的数据相同
+     * @param callback 临时表的准备、写入和发布
+     * @return 本次写入的数量，已经发布过时为0
+     * @throws SQLException 任意分片失败时抛出，已提交的分片保留，可以再次提交继续导入
+     */
+    public <T> int execute(String importId, List<T> rows, ResumableImportCallback<T> callback) throws SQLException {
+        if (!IMPORT_ID.matcher(importId).matches()) {
+            throw new IllegalArgumentException("导入id只能包含小写字母、数字和下划线，最长32位：" + importId);
+        }
+        if (!running.add(importId)) {
+            throw new IllegalStateException("导入正在执行：" + importId);
+        }
+        try {
+            return doExecute(importId, rows, callback);
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("导入执行失败：" + importId, e);
+        } finally {
+            running.remove(importId);
+        }
+    }
+
+    private <T> int doExecute(String importId, List<T> rows, ResumableImportCallback<T> callback) throws Exception {
+        TransactionProperties.Checkpoint config = transactionProperties.getCheckpoint();
+        Path file = Path.of(config.getJournalDir()).resolve(importId + ".journal");
+        Optional<ImportJournal.State> recorded = ImportJournal.read(file);
+        if (recorded.isPresent() && recorded.get().published()) {
+            log.info("导入{}已发布", importId);
+            return 0;
+        }
+        String payloadHash = payloadHash(rows, callback);
+        try (ImportJournal journal = ImportJournal.open(file)) {
+            ImportJournal.State state;
+            int total = 0;
+            if (recorded.isPresent()) {
+                state = recorded.get();
+                if (state.rows() != rows.size()
+                        || (state.payloadHash() != null && !state.payloadHash().equals(payloadHash))) {
+                    throw new IllegalStateException("导入" + importId + "的数据与第一次提交的不一致，行数："
+                            + state.rows() + " -> " + rows.size() + "，摘要：" + state.payloadHash() + " -> " + payloadHash);
+                }
+                log.info("继续导入{}，已提交分片：{}", importId, state.chunks().cardinality());
+                // 所有分片都已提交时临时表可能已经替换，不能再准备临时表
+                if (!state.swapping() && state.chunks().cardinality() < chunks(state)) {
+                    prepare(callback, true);
+                    total = writeChunks(journal, state, rows, callback);
+                }
+            } else {
+                prepare(callback, false);
+                int chunkSize = Math.max(1, config.getChunkSize());
+                long firstId = rows.isEmpty() ? 0 : callback.reserveIds(rows.size());
+                state = new ImportJournal.State(rows.size(), chunkSize, firstId, payloadHash, new BitSet(), false, false);
+                // 开始记录落盘之后才写入分片，恢复时按同样的主键重新写入，不会产生重复数据
+                journal.start(state.rows(), state.chunkSize(), state.firstId(), payloadHash);
+                total = writeChunks(journal, state, rows, callback);
+            }
+            if (!state.swapping()) {
+                journal.swapping();
+            }
+            publish(callback);
+            journal.published();
+            log.info("导入{}发布完毕，本次写入数量：{}", importId, total);
+            return total;
+        }
+    }
+
+    private static int chunks(ImportJournal.State state) {
+        return (state.rows() + state.chunkSize() - 1) / state.chunkSize();
+    }
+
+    /**
+     * 按顺序合并每行的内容摘要，64位FNV-1a
+     */
+    private static <T> String payloadHash(List<T> rows, ResumableImportCallback<T> callback) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < rows.size(); i++) {
+            long value = callback.contentHash(rows, i);
+            for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+                hash ^= (value >>> shift) & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return Long.toHexString(hash);
+    }
+
+    private <T> void prepare(ResumableImportCallback<T> callback, boolean resume) throws Exception {
+        try (SqlSession sqlSession = sqlContext.getSqlSession()) {
+            callback.prepare(sqlSession, resume);
+            sqlSession.commit(true);
+        }
+    }
+
+    /**
+     * 发布期间与多线程事务提交一样通知监听，例如清空查询缓存
+     */
+    private <T> void publish(ResumableImportCallback<T> callback) throws Exception {
+        boolean committed = false;
+        transactionListeners.forEach(TransactionListener::beforeCommit);
+        try (SqlSession sqlSession = sqlContext.getSqlSession()) {
+            callback.publish(sqlSession);
+            sqlSession.commit(true);
+            committed = true;
+        } finally {
+            boolean published = committed;
+            transactionListeners.forEach(listener -> listener.afterCompletion(published));
+        }
+    }
+
+    /**
+     * 多个子线程依次领取未提交的分片，每个分片单独提交，任意分片失败时其他子线程不再领取新的分片
+     * 子线程数不超过从 {@link ConnectionBudget} 预留到的连接数，与多线程事务一起在预算中排队
+     */
+    private <T> int writeChunks(ImportJournal journal, ImportJournal.State state, List<T> rows,
+                                ResumableImportCallback<T> callback) throws Exception {
+        List<Integer> pending = IntStream.range(0, chunks(state)).filter(i -> !state.chunks().get(i)).boxed().toList();
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        FairChunkScheduler.Ticket ticket = fairChunkScheduler.open(TenantContext.current());
+        int workers = connectionBudget.reserve(Math.min(transactionProperties.getParallelism(), pending.size()));
+        try {
+            return awaitWorkers(submitWorkers(workers, journal, state, rows, pending, callback, ticket));
+        } finally {
+            connectionBudget.release(workers);
+        }
+    }
+
+    private <T> List<Future<Integer>> submitWorkers(int workers, ImportJournal journal, ImportJournal.State state,
+                                                    List<T> rows, List<Integer> pending,
+                                                    ResumableImportCallback<T> callback,
+                                                    FairChunkScheduler.Ticket ticket) {
+        int chunkSize = state.chunkSize();
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<Integer>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(transactionExecutor.submit(TenantContext.wrap(() -> {
+                int count = 0;
+                try {
+                    for (int n; !failed.get() && (n = next.getAndIncrement()) < pending.size(); ) {
+                        int index = pending.get(n);
+                        int from = index * chunkSize;
+                        List<T> chunk = rows.subList(from, Math.min(from + chunkSize, rows.size()));
+                        Integer number = writeChunk(ticket, chunk, state.firstId() + from, callback, failed);
+                        if (number == null) {
+                            break;
+                        }
+                        journal.chunk(index);
+                        count += number;
+                    }
+                    return count;
+                } catch (Exception e) {
+                    failed.set(true);
+                    throw e;
+                }
+            })));
+        }
+        return futures;
+    }
+
+    /**
+     * 等待所有子线程退出，返回写入总数；有子线程失败时在全部退出后抛出第一个异常
+     */
+    private static int awaitWorkers(List<Future<Integer>> futures) throws Exception {
+        int total = 0;
+        Exception failure = null;
+        for (Future<Integer> future : futures) {
+            try {
+                total += future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return total;
+    }
+
+    /**
+     * 在新的连接上获取写入许可后写入并提交一个分片，遇到临时错误时回滚后重试
+     * 先取得连接再获取许可，与 {@link MultiThreadTransactionTemplate} 的子线程一样，持有许可时不会再等待连接池
+     * @return 写入数量，其他子线程失败而放弃时为null
+     */
+    private <T> Integer writeChunk(FairChunkScheduler.Ticket ticket, List<T> chunk, long firstId,
+                                   ResumableImportCallback<T> callback, AtomicBoolean failed) throws Exception {
+        int maxAttempts = Math.max(1, transactionProperties.getRetry().getMaxAttempts());
+        for (int attempt = 1; ; attempt++) {
+            try (SqlSession sqlSession = sqlContext.getSqlSession(callback.executorType(), callback.localInfile())) {
+                // 会话在第一次使用时才从连接池获取连接
+                sqlSession.getConnection();
+                if (!fairChunkScheduler.acquire(ticket, failed::get)) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                try {
+                    int number = callback.write(sqlSession, chunk, firstId);
+                    if (number <= 0) {
+                        throw new SQLException("分片写入数量异常：" + number);
+                    }
+                    sqlSession.commit(true);
+                    long nanos = System.nanoTime() - start;
+                    fairChunkScheduler.release(ticket, chunk.size(), nanos, false);
+                    transactionMetrics.chunk(chunk.size(), nanos);
+                    return number;
+                } catch (Exception e) {
+                    sqlSession.rollback(true);
+                    TransientErrors.Scope scope = TransientErrors.classify(e);
+                    fairChunkScheduler.release(ticket, 0, 0, scope != TransientErrors.Scope.NONE);
+                    // 每个分片单独提交，语句级和事务级的临时错误都只需要重新写入该分片
+                    if (scope == TransientErrors.Scope.NONE || attempt >= maxAttempts || failed.get()) {
+                        throw e;
+                    }
+                    transactionMetrics.retry(scope);
+                    log.info("分片写入失败，第{}次重试：{}", attempt, e.getMessage());
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedException {
+        TransactionProperties.Retry retry = transactionProperties.getRetry();
+        long max = Math.min(retry.getMaxBackoff().toMillis(), retry.getBackoff().toMillis() << Math.min(attempt - 1, 20));
+        if (max > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(max + 1));
+        }
+    }
+}
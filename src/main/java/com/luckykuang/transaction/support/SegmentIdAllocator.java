@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 号段(hi/lo)主键分配：每次从序列表t_sequence预留一段连续的id，在内存中分配给各个分片，
+ * 写入时由客户端指定主键，多个连接并发插入时不再争抢AUTO_INCREMENT，同一分片的id连续递增，按主键顺序写入
+ * 序列名称为表名，启动时初始化为表中当前最大id之后，初始化使用不加锁的普通查询，不会等待正在执行的导入
+ * 预留号段使用单独的连接和事务，立即提交，不受导入事务回滚的影响，回滚和剩余不够一个分片的id直接丢弃
+ * 号段用完时只有一个线程去预留，预留期间不持有号段的锁，其他线程仍然可以分配剩余的id
+ * @author luckykuang
+ * @date 2023/12/4 14:00
+ */
+@Slf4j
+@Component
+public class SegmentIdAllocator {
+    public static final String SEQUENCE_TABLE = "t_sequence";
+
+    private final TransactionProperties.Id config;
+    private final DataSource dataSource;
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    public SegmentIdAllocator(TransactionProperties transactionProperties, DataSource dataSource) {
+        this.config = transactionProperties.getId();
+        this.dataSource = dataSource;
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * 启动时初始化配置的序列，此时还没有导入在执行
+     * @throws SQLException 序列表不存在等，开启号段分配前需要先创建序列表
+     */
+    @PostConstruct
+    public void init() throws SQLException {
+        if (!config.isEnabled()) {
+            return;
+        }
+        for (String sequence : config.getSequences()) {
+            try (Connection connection = dataSource.getConnection()) {
+                initSequence(connection, sequence);
+            }
+        }
+    }
+
+    /**
+     * 分配count个连续的id
+     * @param sequence 序列名称(表名)
+     * @return 第一个id，分配的范围为[first, first + count)
+     */
+    public long allocate(String sequence, int count) throws SQLException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        Segment segment = segments.computeIfAbsent(sequence, key -> new Segment());
+        while (true) {
+            synchronized (segment) {
+                if (segment.end - segment.next >= count) {
+                    long first = segment.next;
+                    segment.next += count;
+                    return first;
+                }
+            }
+            segment.refill.lock();
+            try {
+                long remaining;
+                synchronized (segment) {
+                    remaining = segment.end - segment.next;
+                }
+                if (remaining >= count) {
+                    // 等待期间其他线程已经预留了新的号段
+                    continue;
+                }
+                // 号段剩余不够时直接丢弃，保证一个分片内的id连续
+                long size = Math.max(config.getBlockSize(), count);
+                long first = reserve(sequence, size);
+                synchronized (segment) {
+                    segment.next = first;
+                    segment.end = first + size;
+                }
+                log.debug("序列{}预留号段[{}, {})", sequence, first, first + size);
+            } finally {
+                segment.refill.unlock();
+            }
+        }
+    }
+
+    /**
+     * 在数据库中预留size个id，返回第一个
+     */
+    private long reserve(String sequence, long size) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            try {
+                connection.setAutoCommit(false);
+                Long first = lockNextValue(connection, sequence);
+                if (first == null) {
+                    // 没有在启动时初始化的序列，先提交初始化再重新锁定
+                    connection.setAutoCommit(true);
+                    initSequence(connection, sequence);
+                    connection.setAutoCommit(false);
+                    first = lockNextValue(connection, sequence);
+                    if (first == null) {
+                        throw new IllegalStateException("sequence not found: " + sequence);
+                    }
+                }
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "UPDATE " + SEQUENCE_TABLE + " SET next_value = ? WHERE name = ?")) {
+                    statement.setLong(1, first + size);
+                    statement.setString(2, sequence);
+                    statement.executeUpdate();
+                }
+                connection.commit();
+                return first;
+            } catch (SQLException | RuntimeException e) {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * 锁定序列行并读取下一个可用id，序列不存在时返回null
+     */
+    private static Long lockNextValue(Connection connection, String sequence) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT next_value FROM " + SEQUENCE_TABLE + " WHERE name = ? FOR UPDATE")) {
+            statement.setString(1, sequence);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : null;
+            }
+        }
+    }
+
+    /**
+     * 序列不存在时按表中最大id初始化，在自动提交模式下执行
+     * 先用普通查询读取最大id再插入，不使用INSERT ... SELECT：后者在MySQL中是加锁读，会等待正在执行的导入删除或写入的行
+     */
+    private static void initSequence(Connection connection, String sequence) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM " + SEQUENCE_TABLE + " WHERE name = ?")) {
+            statement.setString(1, sequence);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return;
+                }
+            }
+        }
+        long next;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT COALESCE(MAX(id), 0) + 1 FROM " + sequence);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            next = resultSet.getLong(1);
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO " + SEQUENCE_TABLE + " (name, next_value) VALUES (?, ?)")) {
+            insert.setString(1, sequence);
+            insert.setLong(2, next);
+            insert.executeUpdate();
+            log.info("序列{}初始化，下一个id：{}", sequence, next);
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // 其他实例同时初始化了同一个序列
+            log.debug("序列{}已被其他实例初始化", sequence);
+        }
+    }
+
+    private static class Segment {
+        private final ReentrantLock refill = new ReentrantLock();
+        private long next;
+        private long end;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 分片事务回调，每个分片数据源一个连接，连接已加入XA事务分支，不能自行提交或回滚
+ * @author luckykuang
+ * @date 2023/11/27 9:30
+ */
+public interface ShardCallback<T> {
+
+    /**
+     * 分片键，按哈希值路由到分片，相同分片键的数据总是写入同一个分片
+     * @param row 数据
+     */
+    Object shardKey(T row);
+
+    /**
+     * 每个分片的连接上执行的前置操作(例如先删除旧数据)，与写入一起提交或回滚
+     * @param connection 分片连接
+     * @throws SQLException
+     */
+    default void prepare(Connection connection) throws SQLException {
+    }
+
+    /**
+     * 在分片连接上写入一个分片
+     * @param connection 分片连接
+     * @param chunk 分片数据
+     * @return 写入数量，小于等于0视为失败
+     * @throws SQLException
+     */
+    int write(Connection connection, List<T> chunk) throws SQLException;
+}
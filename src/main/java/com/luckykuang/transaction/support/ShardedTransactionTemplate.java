@@ -0,0 +1,548 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.annotation.Isolation;
+
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨多个分片数据源的多线程事务，数据按分片键哈希路由，每个分片一个子线程、一个XA事务分支
+ * 两阶段提交：
+ *      1.所有子线程写入成功后，主线程结束并准备(XA PREPARE)所有分支，任意分支失败则全部回滚
+ *      2.全部准备成功后先在恢复日志中记录提交决定并刷盘，再逐个提交
+ * 第二阶段中提交失败的分支在新的XA连接上按退避时间重试，重试到最大退避时间仍未成功时交给后台线程继续重试直到成功，
+ * 并向调用方抛出 {@link InDoubtCommitException}，这些分支提交前数据不可见且持有行锁；
+ * 宕机时停留在准备状态的分支在重启时由 {@link #recover()} 按恢复日志继续提交，没有提交决定的分支一律回滚
+ * 全局事务id以实例id开头，多个应用实例共用分片时每个实例只恢复自己创建的分支，其他实例的分支由其自己的恢复日志决定
+ * 分支使用不经过连接池的XA连接，写入的是分片库而不是主库，因此不经过 {@link FairChunkScheduler} 和
+ * {@link ConcurrencyLimiter}(二者按主库连接池和主库耗时计算许可)，并发度固定为分片数；
+ * 分片耗时同样记录到 {@link TransactionMetrics}，任意分支失败时取消其余分支正在执行的语句
+ * @author luckykuang
+ * @date 2023/11/27 10:30
+ */
+@Slf4j
+public class ShardedTransactionTemplate {
+    /**
+     * 本应用创建的XA分支的格式id，恢复时只处理该格式的分支
+     */
+    static final int FORMAT_ID = 0x4C4B5458;
+    /**
+     * 全局事务id最长64字节，txId(UUID)占36字节，再加一个分隔符
+     */
+    static final int MAX_INSTANCE_ID_BYTES = Xid.MAXGTRIDSIZE - 37;
+
+    private final Map<String, XADataSource> shards;
+    private final List<String> names;
+    private final ExecutorService transactionExecutor;
+    private final XaRecoveryLog recoveryLog;
+    private final TransactionMetrics transactionMetrics;
+    private final String instanceId;
+    private final Isolation isolation;
+    private final int chunkSize;
+    private final Duration commitBackoff;
+    private final Duration commitMaxBackoff;
+    /**
+     * 后台重试提交失败的分支，守护线程，关闭后剩余的分支由重启时的恢复流程提交
+     */
+    private final ScheduledExecutorService commitRetryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "xa-commit-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param shards 分片名称及数据源，名称写入XA分支，不能随意修改
+     * @param transactionExecutor 子线程线程池
+     * @param recoveryLog 恢复日志，每个实例一个
+     * @param transactionMetrics 耗时统计
+     * @param instanceId 实例id，写入XA全局事务id，同一实例重启前后必须相同，不同实例之间不能相同
+     * @param isolation 每个分支的事务隔离级别
+     * @param chunkSize 每次批量写入的行数
+     * @param commitBackoff 提交失败后第一次重试前等待的时间，之后每次加倍
+     * @param commitMaxBackoff 最大等待时间，超过后转到后台按该间隔继续重试
+     */
+    public ShardedTransactionTemplate(Map<String, XADataSource> shards, ExecutorService transactionExecutor,
+                                      XaRecoveryLog recoveryLog, TransactionMetrics transactionMetrics,
+                                      String instanceId, Isolation isolation, int chunkSize,
+                                      Duration commitBackoff, Duration commitMaxBackoff) {
+        if (instanceId == null || instanceId.isBlank() || instanceId.contains(":")
+                || instanceId.getBytes(StandardCharsets.UTF_8).length > MAX_INSTANCE_ID_BYTES) {
+            throw new IllegalArgumentException("实例id不能为空、不能包含冒号且不能超过"
+                    + MAX_INSTANCE_ID_BYTES + "字节：" + instanceId);
+        }
+        this.shards = new LinkedHashMap<>(shards);
+        this.names = new ArrayList<>(shards.keySet());
+        this.transactionExecutor = transactionExecutor;
+        this.recoveryLog = recoveryLog;
+        this.transactionMetrics = transactionMetrics;
+        this.instanceId = instanceId;
+        this.isolation = isolation;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.commitBackoff = commitBackoff.isNegative() || commitBackoff.isZero() ? Duration.ofMillis(1) : commitBackoff;
+        this.commitMaxBackoff = commitMaxBackoff.compareTo(this.commitBackoff) < 0 ? this.commitBackoff : commitMaxBackoff;
+    }
+
+    public int getShardCount() {
+        return names.size();
+    }
+
+    /**
+     * 数据所在的分片下标
+     */
+    public int shardOf(Object shardKey) {
+        int hash = shardKey == null ? 0 : shardKey.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), names.size());
+    }
+
+    /**
+     * 执行分片事务
+     * @param data 数据
+     * @param callback 分片键及写入
+     * @return 写入总数量
+     * @throws SQLException 提交决定之前任意一步失败，所有分片回滚后抛出；
+     *                      已决定提交但部分分支重试后仍未提交成功时为 {@link InDoubtCommitException}
+     */
+    public <T> int execute(List<T> data, ShardCallback<T> callback) throws SQLException {
+        if (names.isEmpty()) {
+            throw new SQLException("未配置分片数据源");
+        }
+        List<List<T>> partitions = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (T row : data) {
+            partitions.get(shardOf(callback.shardKey(row))).add(row);
+        }
+        String txId = UUID.randomUUID().toString();
+        List<Branch> branches = new ArrayList<>(names.size());
+        List<Future<Integer>> futures = new ArrayList<>(names.size());
+        // 只用于失败时取消其余分支正在执行的语句，分支连接不加入其中
+        TransactionGroup group = new TransactionGroup(isolation);
+        long start = System.nanoTime();
+        Exception failure = null;
+        int total = 0;
+        try {
+            for (String name : names) {
+                branches.add(Branch.start(name, shards.get(name), new ShardXid(instanceId, txId, name), isolation));
+            }
+            for (int i = 0; i < branches.size(); i++) {
+                Branch branch = branches.get(i);
+                List<T> rows = partitions.get(i);
+                futures.add(transactionExecutor.submit(() -> write(branch, rows, callback, group)));
+            }
+            for (Future<Integer> future : futures) {
+                total += future.get();
+            }
+        } catch (ExecutionException e) {
+            failure = e.getCause() instanceof Exception cause ? cause : e;
+        } catch (Exception e) {
+            failure = e;
+        }
+        if (failure != null) {
+            group.fail(failure);
+            // 分支的连接还在子线程中使用时不能回滚，等待所有子线程退出
+            awaitQuietly(futures);
+        }
+        try {
+            return complete(txId, branches, failure, total, start);
+        } finally {
+            branches.forEach(Branch::close);
+        }
+    }
+
+    private <T> int write(Branch branch, List<T> rows, ShardCallback<T> callback, TransactionGroup group) throws SQLException {
+        group.bind();
+        try {
+            callback.prepare(branch.connection);
+            int count = 0;
+            for (int from = 0; from < rows.size() && !group.isFailed(); from += chunkSize) {
+                List<T> chunk = rows.subList(from, Math.min(rows.size(), from + chunkSize));
+                long start = System.nanoTime();
+                int number = callback.write(branch.connection, chunk);
+                if (number <= 0) {
+                    throw new SQLException("分片" + branch.name + "写入数量异常：" + number);
+                }
+                transactionMetrics.chunk(number, System.nanoTime() - start);
+                count += number;
+            }
+            return count;
+        } catch (SQLException | RuntimeException e) {
+            group.fail(e);
+            throw e;
+        } finally {
+            group.unbind();
+        }
+    }
+
+    private int complete(String txId, List<Branch> branches, Exception failure, int total, long start)
+            throws SQLException {
+        if (failure == null) {
+            try {
+                for (Branch branch : branches) {
+                    branch.end();
+                }
+                for (Branch branch : branches) {
+                    branch.prepare();
+                }
+                recoveryLog.commit(txId);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            branches.forEach(Branch::rollbackQuietly);
+            transactionMetrics.complete(false, 0, System.nanoTime() - start);
+            log.info("分片事务回滚：{}", txId, failure);
+            throw failure instanceof SQLException sqlException
+                    ? sqlException : new SQLException("分片事务执行失败", failure);
+        }
+        // 已经决定提交，之后的失败不再回滚，重试提交直到成功
+        List<Branch> pending = new ArrayList<>();
+        XAException failed = null;
+        for (Branch branch : branches) {
+            try {
+                branch.commit();
+            } catch (XAException e) {
+                failed = e;
+                pending.add(branch);
+                log.warn("分片{}提交失败，重试提交：{}", branch.name, txId, e);
+            }
+        }
+        retryCommit(txId, pending);
+        transactionMetrics.complete(true, total, System.nanoTime() - start);
+        if (!pending.isEmpty()) {
+            // 分支的连接交给后台线程，提交成功后关闭
+            pending.forEach(branch -> branch.retained = true);
+            scheduleCommit(txId, pending);
+            throw new InDoubtCommitException("分片" + pending.stream().map(branch -> branch.name).toList()
+                    + "已决定提交但尚未提交成功，后台继续重试，提交前数据不可见：" + txId, failed);
+        }
+        done(txId);
+        log.info("分片事务提交完毕：{}，写入数量：{}", txId, total);
+        return total;
+    }
+
+    /**
+     * 按退避时间重试提交，等待时间超过最大退避时间或线程被中断时返回，提交成功的分支从pending中移除
+     */
+    private void retryCommit(String txId, List<Branch> pending) {
+        long backoff = commitBackoff.toMillis();
+        while (!pending.isEmpty() && backoff <= commitMaxBackoff.toMillis()) {
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pending.removeIf(branch -> retryCommit(txId, branch));
+            backoff *= 2;
+        }
+    }
+
+    /**
+     * 后台按最大退避时间重试提交，直到所有分支提交成功
+     */
+    private void scheduleCommit(String txId, List<Branch> pending) {
+        try {
+            commitRetryExecutor.schedule(() -> {
+                pending.removeIf(branch -> retryCommit(txId, branch));
+                if (pending.isEmpty()) {
+                    done(txId);
+                    log.info("分片事务后台提交完毕：{}", txId);
+                } else {
+                    scheduleCommit(txId, pending);
+                }
+            }, commitMaxBackoff.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.warn("应用正在关闭，分片{}重启后继续提交：{}", pending.stream().map(branch -> branch.name).toList(), txId);
+        }
+    }
+
+    /**
+     * 重试提交一个分支，分支已不存在时视为已经提交(上次提交已生效但没有收到结果)
+     * @return 是否提交成功，成功后关闭分支的连接
+     */
+    private boolean retryCommit(String txId, Branch branch) {
+        try {
+            branch.retryCommit(shards.get(branch.name));
+            log.info("分片{}重试提交成功：{}", branch.name, txId);
+        } catch (XAException e) {
+            if (e.errorCode != XAException.XAER_NOTA) {
+                log.warn("分片{}重试提交失败：{}", branch.name, txId, e);
+                return false;
+            }
+            log.warn("分片{}分支已不存在，视为已提交：{}", branch.name, txId);
+        } catch (SQLException e) {
+            log.warn("分片{}重试提交失败：{}", branch.name, txId, e);
+            return false;
+        }
+        branch.retained = false;
+        branch.close();
+        return true;
+    }
+
+    private void done(String txId) {
+        try {
+            recoveryLog.done(txId);
+        } catch (Exception e) {
+            log.warn("恢复日志写入失败：{}", txId, e);
+        }
+    }
+
+    /**
+     * 等待所有子线程退出，期间被中断也继续等待，返回前恢复中断状态
+     * 子线程在失败后会取消正在执行的语句并尽快退出
+     */
+    private static void awaitQuietly(List<Future<Integer>> futures) {
+        boolean interrupted = false;
+        for (Future<Integer> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    // 失败原因已经记录
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 停止后台重试，剩余未提交的分支由重启时的恢复流程提交
+     */
+    public void close() {
+        commitRetryExecutor.shutdownNow();
+    }
+
+    /**
+     * 恢复本实例停留在准备状态的分支：恢复日志中已决定提交的继续提交，其余回滚
+     * 其他实例创建的分支不处理，它们的提交决定只在其他实例的恢复日志中
+     * 只能在启动时、还没有分片事务执行前调用；所有分片都恢复成功后清空恢复日志
+     */
+    public void recover() throws Exception {
+        if (names.isEmpty()) {
+            return;
+        }
+        Set<String> pending = recoveryLog.pendingCommits();
+        String prefix = instanceId + ":";
+        boolean recovered = true;
+        for (String name : names) {
+            XAConnection xaConnection = null;
+            try {
+                xaConnection = shards.get(name).getXAConnection();
+                XAResource resource = xaConnection.getXAResource();
+                for (Xid xid : resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN)) {
+                    if (xid.getFormatId() != FORMAT_ID) {
+                        continue;
+                    }
+                    String globalId = new String(xid.getGlobalTransactionId(), StandardCharsets.UTF_8);
+                    if (!globalId.startsWith(prefix)) {
+                        log.debug("分片{}跳过其他实例的分支：{}", name, globalId);
+                        continue;
+                    }
+                    String txId = globalId.substring(prefix.length());
+                    if (pending.contains(txId)) {
+                        resource.commit(xid, false);
+                        log.info("分片{}恢复提交：{}", name, txId);
+                    } else {
+                        resource.rollback(xid);
+                        log.info("分片{}恢复回滚：{}", name, txId);
+                    }
+                }
+            } catch (SQLException | XAException e) {
+                recovered = false;
+                log.warn("分片{}恢复失败", name, e);
+            } finally {
+                if (xaConnection != null) {
+                    xaConnection.close();
+                }
+            }
+        }
+        if (recovered) {
+            recoveryLog.reset();
+        }
+    }
+
+    /**
+     * 一个分片上的XA事务分支
+     */
+    private static final class Branch {
+        private final String name;
+        private final Xid xid;
+        private final XAConnection xaConnection;
+        private final Connection connection;
+        private final XAResource resource;
+        private boolean ended;
+        private boolean prepared;
+        private boolean readOnly;
+        private boolean closed;
+        /**
+         * 提交失败后交给后台重试，连接不随分片事务结束而关闭
+         */
+        private volatile boolean retained;
+
+        private Branch(String name, Xid xid, XAConnection xaConnection) throws SQLException {
+            this.name = name;
+            this.xid = xid;
+            this.xaConnection = xaConnection;
+            this.connection = xaConnection.getConnection();
+            this.resource = xaConnection.getXAResource();
+        }
+
+        static Branch start(String name, XADataSource dataSource, Xid xid, Isolation isolation)
+                throws SQLException, XAException {
+            XAConnection xaConnection = dataSource.getXAConnection();
+            try {
+                Branch branch = new Branch(name, xid, xaConnection);
+                if (isolation != Isolation.DEFAULT) {
+                    branch.connection.setTransactionIsolation(isolation.value());
+                }
+                branch.resource.start(xid, XAResource.TMNOFLAGS);
+                return branch;
+            } catch (SQLException | XAException | RuntimeException e) {
+                xaConnection.close();
+                throw e;
+            }
+        }
+
+        void end() throws XAException {
+            resource.end(xid, XAResource.TMSUCCESS);
+            ended = true;
+        }
+
+        void prepare() throws XAException {
+            readOnly = resource.prepare(xid) == XAResource.XA_RDONLY;
+            prepared = true;
+        }
+
+        void commit() throws XAException {
+            if (prepared && !readOnly) {
+                resource.commit(xid, false);
+            }
+        }
+
+        /**
+         * 重试提交：原连接仍然可用时在原连接上提交(部分数据库在原连接断开时会回滚已准备的分支)，
+         * 否则关闭原连接，在新的XA连接上提交
+         */
+        void retryCommit(XADataSource dataSource) throws SQLException, XAException {
+            if (!closed && connection.isValid(1)) {
+                resource.commit(xid, false);
+                return;
+            }
+            closeConnection();
+            XAConnection retry = dataSource.getXAConnection();
+            try {
+                retry.getXAResource().commit(xid, false);
+            } finally {
+                retry.close();
+            }
+        }
+
+        void rollbackQuietly() {
+            if (!ended) {
+                ended = true;
+                try {
+                    resource.end(xid, XAResource.TMFAIL);
+                } catch (XAException e) {
+                    // 分支可能已经被数据库结束(例如死锁回滚)，仍然尝试回滚
+                }
+            }
+            try {
+                if (!readOnly) {
+                    resource.rollback(xid);
+                }
+            } catch (XAException e) {
+                // 已准备的分支回滚失败时由恢复流程回滚
+                log.warn("分片{}回滚失败", name, e);
+            }
+        }
+
+        void close() {
+            if (!retained) {
+                closeConnection();
+            }
+        }
+
+        private void closeConnection() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                xaConnection.close();
+            } catch (SQLException e) {
+                log.warn("分片{}连接关闭失败", name, e);
+            }
+        }
+    }
+
+    /**
+     * 全局事务id为"实例id:txId"，分支id为分片名称
+     */
+    record ShardXid(byte[] globalTransactionId, byte[] branchQualifier) implements Xid {
+
+        ShardXid(String instanceId, String txId, String shard) {
+            this((instanceId + ":" + txId).getBytes(StandardCharsets.UTF_8), shard.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getFormatId() {
+            return FORMAT_ID;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId() {
+            return globalTransactionId;
+        }
+
+        @Override
+        public byte[] getBranchQualifier() {
+            return branchQualifier;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 多线程事务子线程中创建的语句登记到所属事务，事务失败时通过 {@link Statement#cancel()} 取消正在执行的语句
+ * 事务已经失败时不再执行新的语句
+ * @author luckykuang
+ * @date 2023/11/21 14:40
+ */
+@Component
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class})
+})
+public class StatementCancelInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        if (result instanceof Statement statement) {
+            try {
+                register(statement);
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 不经过MyBatis直接创建的语句在执行前调用，同样登记到当前线程所属的多线程事务
+     * @param statement 即将执行的语句
+     * @throws SQLException 事务已经失败
+     */
+    public static void register(Statement statement) throws SQLException {
+        TransactionGroup group = TransactionGroup.current();
+        if (group != null) {
+            if (group.isFailed()) {
+                throw new SQLException("多线程事务已失败，取消执行");
+            }
+            group.running(statement);
+        }
+    }
+}
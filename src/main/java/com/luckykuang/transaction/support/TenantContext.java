@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 当前线程所属的租户，由请求入口设置，提交到主线程池和任务线程池时随任务传递
+ * @author luckykuang
+ * @date 2023/12/4 9:30
+ */
+public final class TenantContext {
+    public static final String DEFAULT_TENANT = "default";
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private TenantContext(){}
+
+    public static String current() {
+        String tenant = CURRENT.get();
+        return tenant == null ? DEFAULT_TENANT : tenant;
+    }
+
+    public static void set(String tenant) {
+        if (tenant == null || tenant.isBlank()) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(tenant);
+        }
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * 在执行线程中使用提交时的租户
+     */
+    public static <R> Callable<R> wrap(Callable<R> task) {
+        String tenant = current();
+        return () -> {
+            String previous = CURRENT.get();
+            CURRENT.set(tenant);
+            try {
+                return task.call();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+
+import java.util.List;
+
+/**
+ * 多线程事务回调
+ * @author luckykuang
+ * @date 2023/11/8 9:35
+ */
+public interface TransactionCallback<T> {
+
+    /**
+     * 子线程会话的执行器类型，主线程会话固定使用 {@link ExecutorType#SIMPLE}
+     */
+    default ExecutorType executorType() {
+        return ExecutorType.SIMPLE;
+    }
+
+    /**
+     * 子线程是否执行LOAD DATA LOCAL INFILE，是时子线程连接来自单独开启local_infile的连接池
+     */
+    default boolean localInfile() {
+        return false;
+    }
+
+    /**
+     * 主线程连接上执行的前置操作(例如先删除旧数据)，与子线程的写入一起提交或回滚
+     * @param sqlSession 主线程会话
+     * @throws Exception
+     */
+    default void prepare(SqlSession sqlSession) throws Exception {
+    }
+
+    /**
+     * 子线程在自己的连接上写入一个分片
+     * @param sqlSession 子线程会话
+     * @param chunk 分片数据
+     * @return 写入数量，小于等于0视为失败
+     * @throws Exception
+     */
+    int write(SqlSession sqlSession, List<T> chunk) throws Exception;
+
+    /**
+     * 子线程退出前在自己的会话上执行，无论写入成功还是失败，用于关闭回调在该连接上缓存的资源(例如预编译语句)
+     * 连接由连接池复用，缓存的资源不会随连接归还而释放
+     * @param sqlSession 子线程会话
+     */
+    default void release(SqlSession sqlSession) {
+    }
+
+    /**
+     * 所有连接提交成功后在主线程中执行，仍在 {@link TransactionListener} 的提交窗口内(例如切换影子表)
+     * 抛出异常时事务仍然视为失败，但已提交的数据不会回滚
+     * @throws Exception
+     */
+    default void afterCommit() throws Exception {
+    }
+
+    /**
+     * 估算一行数据在语句中占用的字节数，用于限制分片大小
+     * @param row 数据
+     * @return 字节数，小于等于0表示使用配置的估算值
+     */
+    default int estimateRowBytes(T row) {
+        return 0;
+    }
+
+    /**
+     * 估算一个分片在语句中占用的字节数，默认逐行累加 {@link #estimateRowBytes}
+     * 分片不是按行存储时可以覆盖此方法，避免逐行创建对象
+     * @param chunk 分片数据
+     * @return 字节数，小于等于0表示使用配置的估算值
+     */
+    default long estimateChunkBytes(List<T> chunk) {
+        long bytes = 0;
+        for (T row : chunk) {
+            bytes += estimateRowBytes(row);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.SqlSession;
+import org.springframework.transaction.annotation.Isolation;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 一次多线程事务中所有参与的会话(连接)
+ * 每个会话各自开启事务不提交，由主线程统一提交或回滚
+ * 第一次失败时立即取消各子线程正在执行的语句，并执行登记的失败回调(例如取消还未执行的子线程)
+ * 统一提交是逐个连接提交，不是两阶段提交：第N个连接提交失败时前N-1个已经生效，只能回滚其余连接并标记为部分提交
+ * @author luckykuang
+ * @date 2023/11/8 9:50
+ */
+@Slf4j
+class TransactionGroup {
+    private static final ThreadLocal<TransactionGroup> CURRENT = new ThreadLocal<>();
+
+    private final Isolation isolation;
+    private final Map<Thread, Statement> statements = new ConcurrentHashMap<>();
+    private final List<Runnable> failureHooks = new CopyOnWriteArrayList<>();
+    private final List<SqlSession> sessions = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean partiallyCommitted;
+    private boolean closed;
+    private int active;
+
+    TransactionGroup(Isolation isolation) {
+        this.isolation = isolation;
+    }
+
+    /**
+     * 子线程开始执行时登记，事务已经结束则不再执行
+     */
+    synchronized boolean enter() {
+        if (closed) {
+            return false;
+        }
+        active++;
+        return true;
+    }
+
+    synchronized void exit() {
+        active--;
+        notifyAll();
+    }
+
+    /**
+     * 不再接受新的子线程，并等待正在执行的子线程全部退出，之后才能安全地提交或回滚
+     */
+    synchronized void close() {
+        closed = true;
+        boolean interrupted = false;
+        while (active > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 会话加入事务：关闭自动提交并设置隔离级别
+     */
+    SqlSession join(SqlSession sqlSession) throws SQLException {
+        try {
+            Connection connection = sqlSession.getConnection();
+            connection.setAutoCommit(false);
+            if (isolation != Isolation.DEFAULT) {
+                connection.setTransactionIsolation(isolation.value());
+            }
+        } catch (RuntimeException | SQLException e) {
+            sqlSession.close();
+            throw e;
+        }
+        synchronized (sessions) {
+            sessions.add(sqlSession);
+        }
+        return sqlSession;
+    }
+
+    /**
+     * 当前线程所属的事务，没有时返回null
+     */
+    static TransactionGroup current() {
+        return CURRENT.get();
+    }
+
+    void bind() {
+        CURRENT.set(this);
+    }
+
+    void unbind() {
+        CURRENT.remove();
+        statements.remove(Thread.currentThread());
+    }
+
+    /**
+     * 登记当前线程即将执行的语句，失败时用于取消
+     */
+    void running(Statement statement) {
+        statements.put(Thread.currentThread(), statement);
+    }
+
+    /**
+     * 登记失败回调，已经失败时立即执行
+     */
+    void onFailure(Runnable hook) {
+        failureHooks.add(hook);
+        if (isFailed()) {
+            hook.run();
+        }
+    }
+
+    void fail(Throwable e) {
+        if (!failure.compareAndSet(null, e)) {
+            return;
+        }
+        log.info("多线程事务失败，取消其余子线程：{}", e.toString());
+        for (Statement statement : statements.values()) {
+            try {
+                statement.cancel();
+            } catch (Exception ex) {
+                log.debug("取消语句失败", ex);
+            }
+        }
+        for (Runnable hook : failureHooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException ex) {
+                log.warn("执行失败回调异常", ex);
+            }
+        }
+    }
+
+    boolean isFailed() {
+        return failure.get() != null;
+    }
+
+    Throwable getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * 没有任何失败则提交全部会话，否则全部回滚
+     * 第一个提交失败时其余会话仍可回滚；之后再失败的，已提交的无法撤回，只能记录日志
+     */
+    void complete() {
+        boolean committed = false;
+        for (SqlSession sqlSession : sessions) {
+            try {
+                Connection connection = sqlSession.getConnection();
+                if (isFailed()) {
+                    connection.rollback();
+                } else {
+                    sqlSession.flushStatements();
+                    connection.commit();
+                    committed = true;
+                }
+            } catch (Exception e) {
+                if (committed) {
+                    partiallyCommitted = true;
+                    log.error("部分连接已提交，其余连接提交失败，数据可能不一致", e);
+                } else {
+                    log.error("提交失败，回滚其余连接", e);
+                }
+                fail(e);
+                rollbackQuietly(sqlSession);
+            }
+        }
+        for (SqlSession sqlSession : sessions) {
+            sqlSession.close();
+        }
+    }
+
+    /**
+     * 是否有连接已经提交而其他连接提交失败，只有 {@link #complete()} 之后才有意义
+     */
+    boolean isPartiallyCommitted() {
+        return partiallyCommitted;
+    }
+
+    /**
+     * 已经失败时子线程立即回滚自己的连接，尽快释放锁，不必等待主线程统一回滚
+     */
+    void rollbackIfFailed(SqlSession sqlSession) {
+        if (sqlSession != null && isFailed()) {
+            rollbackQuietly(sqlSession);
+        }
+    }
+
+    private void rollbackQuietly(SqlSession sqlSession) {
+        try {
+            sqlSession.getConnection().rollback();
+        } catch (Exception e) {
+            log.warn("回滚失败", e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 后台导入任务调度：提交后立即返回任务id，任务在任务线程池中作为主线程执行多线程事务，通过任务id查询进度
+ * 同时执行的任务数由任务线程池限制，结束的任务保留一段时间后清除
+ * @author luckykuang
+ * @date 2023/11/24 10:00
+ */
+@Slf4j
+@Component
+public class TransactionJobScheduler {
+    private final Map<String, TransactionProgress> jobs = new ConcurrentHashMap<>();
+
+    @Resource
+    private ExecutorService transactionJobExecutor;
+    @Resource
+    private TransactionProperties transactionProperties;
+
+    @FunctionalInterface
+    public interface Job {
+        /**
+         * 执行导入，需要把进度传给 {@link MultiThreadTransactionTemplate#execute(ChunkSource, DispatchMode, TransactionCallback, TransactionProgress)}
+         * @param progress 任务进度
+         * @throws Exception
+         */
+        void run(TransactionProgress progress) throws Exception;
+    }
+
+    /**
+     * 提交任务
+     * @param job 导入
+     * @return 任务id
+     * @throws RejectedExecutionException 排队的任务过多
+     */
+    public String submit(Job job) {
+        evictFinished();
+        String id = UUID.randomUUID().toString();
+        TransactionProgress progress = new TransactionProgress();
+        jobs.put(id, progress);
+        Callable<Void> task = TenantContext.wrap(() -> {
+            job.run(progress);
+            return null;
+        });
+        try {
+            transactionJobExecutor.execute(() -> {
+                try {
+                    task.call();
+                    progress.finish(true, null);
+                } catch (Exception e) {
+                    log.info("导入任务失败：{}", id, e);
+                    progress.finish(false, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            jobs.remove(id);
+            throw e;
+        }
+        return id;
+    }
+
+    public Optional<TransactionProgress.Snapshot> get(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(TransactionProgress::snapshot);
+    }
+
+    private void evictFinished() {
+        long expired = System.nanoTime() - transactionProperties.getJob().getRetention().toNanos();
+        jobs.values().removeIf(progress -> progress.isFinished() && progress.getEndNanos() - expired < 0);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+/**
+ * 多线程事务提交监听，注册为Spring Bean即可生效
+ * 两个方法都在主线程中调用
+ * @author luckykuang
+ * @date 2023/11/16 10:05
+ */
+public interface TransactionListener {
+
+    /**
+     * 即将提交所有连接，只有全部子线程成功时才会调用
+     */
+    default void beforeCommit() {
+    }
+
+    /**
+     * 所有连接提交或回滚完毕，无论成功失败都会调用
+     * @param committed 是否已提交
+     */
+    default void afterCompletion(boolean committed) {
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程事务各阶段指标，通过 /actuator/metrics/transaction.phase?tag=phase:xxx 查看
+ * prepare：主线程获取连接并执行前置操作
+ * chunk：子线程写入单个分片
+ * await：等待所有子线程写入完成
+ * commit/rollback：统一提交或回滚所有连接
+ * @author luckykuang
+ * @date 2023/11/20 10:10
+ */
+@Component
+public class TransactionMetrics {
+    private final Timer prepare;
+    private final Timer chunk;
+    private final Timer await;
+    private final Timer commit;
+    private final Timer rollback;
+    private final DistributionSummary chunkRows;
+    private final Counter committedRows;
+    private final Counter statementRetries;
+    private final Counter transactionRetries;
+
+    public TransactionMetrics(MeterRegistry meterRegistry) {
+        this.prepare = phase(meterRegistry, "prepare");
+        this.chunk = phase(meterRegistry, "chunk");
+        this.await = phase(meterRegistry, "await");
+        this.commit = phase(meterRegistry, "commit");
+        this.rollback = phase(meterRegistry, "rollback");
+        this.chunkRows = DistributionSummary.builder("transaction.chunk.rows")
+                .description("单个分片的行数")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.committedRows = Counter.builder("transaction.rows.committed")
+                .description("已提交的行数")
+                .register(meterRegistry);
+        this.statementRetries = retries(meterRegistry, TransientErrors.Scope.STATEMENT);
+        this.transactionRetries = retries(meterRegistry, TransientErrors.Scope.TRANSACTION);
+    }
+
+    private static Counter retries(MeterRegistry meterRegistry, TransientErrors.Scope scope) {
+        return Counter.builder("transaction.chunk.retries")
+                .description("分片因临时错误重试的次数")
+                .tag("scope", scope.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
+    private static Timer phase(MeterRegistry meterRegistry, String phase) {
+        return Timer.builder("transaction.phase")
+                .description("多线程事务各阶段耗时")
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public void prepare(long nanos) {
+        prepare.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void chunk(int rows, long nanos) {
+        chunk.record(nanos, TimeUnit.NANOSECONDS);
+        chunkRows.record(rows);
+    }
+
+    public void retry(TransientErrors.Scope scope) {
+        (scope == TransientErrors.Scope.TRANSACTION ? transactionRetries : statementRetries).increment();
+    }
+
+    public void await(long nanos) {
+        await.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void complete(boolean committed, int rows, long nanos) {
+        if (committed) {
+            commit.record(nanos, TimeUnit.NANOSECONDS);
+            committedRows.increment(rows);
+        } else {
+            rollback.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程事务执行进度，子线程每写完一个分片累加一次，可以在其他线程中随时查询
+ * 写入行数是已写入但还未提交的行数，最终是否生效以 {@link State} 为准
+ * @author luckykuang
+ * @date 2023/11/24 9:30
+ */
+public class TransactionProgress {
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private volatile State state = State.QUEUED;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile String error;
+
+    public enum State {
+        /**
+         * 等待执行
+         */
+        QUEUED,
+        /**
+         * 正在写入
+         */
+        RUNNING,
+        /**
+         * 所有连接已提交
+         */
+        COMMITTED,
+        /**
+         * 所有连接已回滚
+         */
+        ROLLED_BACK,
+        /**
+         * 提交过程中失败，部分连接已提交，其余连接已回滚，数据不完整
+         */
+        PARTIALLY_COMMITTED,
+        /**
+         * 分片事务已决定提交，部分分支尚未提交成功，后台继续重试，完成前数据不可见
+         */
+        IN_DOUBT
+    }
+
+    public record Snapshot(State state, long rows, long chunks, long elapsedMillis, long rowsPerSecond, String error) {
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+        state = State.RUNNING;
+    }
+
+    void chunk(int rows) {
+        this.rows.addAndGet(rows);
+        chunks.incrementAndGet();
+    }
+
+    /**
+     * 结束，重复调用时以第一次为准
+     * @param committed 是否已提交
+     * @param failure 失败原因，提交时为null
+     */
+    public void finish(boolean committed, Throwable failure) {
+        finish(committed ? State.COMMITTED : State.ROLLED_BACK, failure);
+    }
+
+    /**
+     * 以指定的结束状态结束，重复调用时以第一次为准
+     * @param finalState COMMITTED/ROLLED_BACK/PARTIALLY_COMMITTED
+     * @param failure 失败原因，提交时为null
+     */
+    public synchronized void finish(State finalState, Throwable failure) {
+        if (finalState == State.QUEUED || finalState == State.RUNNING) {
+            throw new IllegalArgumentException("不是结束状态：" + finalState);
+        }
+        if (isFinished()) {
+            return;
+        }
+        if (startNanos == 0) {
+            startNanos = System.nanoTime();
+        }
+        endNanos = System.nanoTime();
+        error = failure == null ? null : String.valueOf(failure.getMessage());
+        state = finalState;
+    }
+
+    public boolean isFinished() {
+        return isFinished(state);
+    }
+
+    private static boolean isFinished(State state) {
+        return state != State.QUEUED && state != State.RUNNING;
+    }
+
+    /**
+     * 结束时间，未结束时为0
+     */
+    public long getEndNanos() {
+        return endNanos;
+    }
+
+    public Snapshot snapshot() {
+        State current = state;
+        long begin = startNanos;
+        long end = isFinished(current) ? endNanos : System.nanoTime();
+        long elapsedNanos = begin == 0 ? 0 : Math.max(0, end - begin);
+        long written = rows.get();
+        long rowsPerSecond = elapsedNanos == 0 ? 0 : written * 1_000_000_000L / elapsedNanos;
+        return new Snapshot(current, written, chunks.get(), elapsedNanos / 1_000_000, rowsPerSecond, error);
+    }
+}
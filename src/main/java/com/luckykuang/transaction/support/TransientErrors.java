@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+
+/**
+ * 写入异常分类，决定分片能否重试以及需要回滚到哪里
+ * @author luckykuang
+ * @date 2023/11/28 9:30
+ */
+public final class TransientErrors {
+    /**
+     * MySQL锁等待超时，默认(innodb_rollback_on_timeout=OFF)只回滚当前语句
+     */
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    /**
+     * MySQL死锁，整个事务已被回滚
+     */
+    private static final int MYSQL_DEADLOCK = 1213;
+    /**
+     * H2锁等待超时
+     */
+    private static final int H2_LOCK_TIMEOUT = 50200;
+    private static final String SERIALIZATION_FAILURE = "40001";
+
+    public enum Scope {
+        /**
+         * 不可重试，整个多线程事务回滚
+         */
+        NONE,
+        /**
+         * 只有失败的语句被回滚，回滚到分片开始前的保存点后重试该分片
+         */
+        STATEMENT,
+        /**
+         * 连接上的事务已被数据库回滚，需要重新写入该连接之前写入的所有分片
+         */
+        TRANSACTION
+    }
+
+    private TransientErrors(){}
+
+    /**
+     * 沿异常链查找第一个SQLException分类，MyBatis会把SQLException包装成PersistenceException
+     */
+    public static Scope classify(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException) {
+                return classify(sqlException);
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return Scope.NONE;
+    }
+
+    private static Scope classify(SQLException e) {
+        // 驱动把锁等待超时和死锁都映射为40001，需要先按错误码区分
+        int errorCode = e.getErrorCode();
+        if (errorCode == MYSQL_LOCK_WAIT_TIMEOUT || errorCode == H2_LOCK_TIMEOUT) {
+            return Scope.STATEMENT;
+        }
+        if (errorCode == MYSQL_DEADLOCK || e instanceof SQLTransactionRollbackException
+                || SERIALIZATION_FAILURE.equals(e.getSQLState())) {
+            return Scope.TRANSACTION;
+        }
+        if (e instanceof SQLTransientConnectionException) {
+            // 连接已断开，事务已经丢失，而其他连接上的数据还需要和它一起提交
+            return Scope.NONE;
+        }
+        if (e instanceof SQLTransientException) {
+            return Scope.STATEMENT;
+        }
+        return Scope.NONE;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.apache.ibatis.session.ExecutorType;
+
+/**
+ * 分片写入方式
+ * @author luckykuang
+ * @date 2023/11/10 10:20
+ */
+public enum WriteMode {
+    /**
+     * 动态拼接一条多VALUES的insert语句，分片越大SQL越长，解析和内存开销越大
+     */
+    SIMPLE(ExecutorType.SIMPLE),
+    /**
+     * MyBatis BATCH执行器逐行执行单行insert，按flushSize批量提交，配合rewriteBatchedStatements=true由驱动改写为多VALUES语句
+     * 按列存储的分片不经过mapper，直接复用单行insert预编译语句JDBC批量执行，避免逐行创建对象
+     */
+    BATCH(ExecutorType.BATCH),
+    /**
+     * 分片编码为CSV后用数据库批量导入(MySQL为LOAD DATA LOCAL INFILE)，不解析SQL，适合大批量导入
+     */
+    LOAD_DATA(ExecutorType.SIMPLE);
+
+    private final ExecutorType executorType;
+
+    WriteMode(ExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+}
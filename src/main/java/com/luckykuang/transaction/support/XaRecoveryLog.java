@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 两阶段提交的恢复日志，只追加写入，每行一条记录：
+ *      COMMIT txId：所有分片准备成功，决定提交，写入后强制刷盘，之后才开始提交各分片
+ *      DONE txId：所有分片已提交
+ * 没有COMMIT记录的事务视为回滚(推定回滚)，因此回滚不需要记录
+ * 重启时有COMMIT没有DONE的事务即为需要继续提交的事务
+ * @author luckykuang
+ * @date 2023/11/27 10:00
+ */
+public class XaRecoveryLog {
+    private static final String COMMIT = "COMMIT";
+    private static final String DONE = "DONE";
+
+    private final Path file;
+
+    public XaRecoveryLog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * 记录提交决定，返回时已经落盘
+     */
+    public synchronized void commit(String txId) throws IOException {
+        append(COMMIT + ' ' + txId, true);
+    }
+
+    /**
+     * 记录所有分片已提交，丢失时只会在恢复时重复提交一次，不需要刷盘
+     */
+    public synchronized void done(String txId) throws IOException {
+        append(DONE + ' ' + txId, false);
+    }
+
+    /**
+     * 已决定提交但还没有全部提交完成的事务
+     */
+    public synchronized Set<String> pendingCommits() throws IOException {
+        Set<String> pending = new LinkedHashSet<>();
+        if (!Files.exists(file)) {
+            return pending;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            int space = line.indexOf(' ');
+            if (space <= 0) {
+                // 写入过程中宕机留下的不完整记录，COMMIT不完整说明还没有开始提交
+                continue;
+            }
+            String txId = line.substring(space + 1).trim();
+            switch (line.substring(0, space)) {
+                case COMMIT -> pending.add(txId);
+                case DONE -> pending.remove(txId);
+                default -> {
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 清空日志，只能在没有进行中的事务且所有待提交事务都已处理后调用
+     */
+    public synchronized void reset() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private void append(String record, boolean force) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap((record + '\n').getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(true);
+            }
+        }
+    }
+}
@@ -20,4 +20,10 @@ CREATE TABLE `t_user`  (
     `age` int(0) DEFAULT NULL,
     `gender` varchar(255) DEFAULT NULL,
     PRIMARY KEY (`id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4;
+
+CREATE TABLE `t_sequence`  (
+    `name` varchar(64) NOT NULL,
+    `next_value` bigint(0) NOT NULL,
+    PRIMARY KEY (`name`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4;
\ No newline at end of file
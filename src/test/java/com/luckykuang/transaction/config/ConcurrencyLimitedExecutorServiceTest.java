@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.config;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/6 11:00
+ */
+class ConcurrencyLimitedExecutorServiceTest {
+
+    @Test
+    void runsQueuedTaskInterruptedWhileWaitingForPermit() throws Exception {
+        ExecutorService threads = Executors.newCachedThreadPool();
+        BlockingExecutorService executor = new BlockingExecutorService(
+                new ConcurrencyLimitedExecutorService(threads, 1), 2,
+                Timer.builder("submit").register(new SimpleMeterRegistry()));
+        CountDownLatch running = new CountDownLatch(1);
+        Future<?> first = executor.submit(() -> {
+            running.countDown();
+            new CountDownLatch(1).await();
+            return null;
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        // 第二个任务等待许可，之后阻塞到被中断：第一个任务先被中断归还许可时第二个任务也可能正常拿到许可
+        Future<?> queued = executor.submit(() -> {
+            new CountDownLatch(1).await();
+            return null;
+        });
+        Thread.sleep(100);
+        assertEquals(2, executor.getInFlight());
+
+        threads.shutdownNow();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(InterruptedException.class, e.getCause());
+        assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(first.isDone());
+        // 两个任务都归还了提交许可
+        assertEquals(0, executor.getInFlight());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.config;
+
+import com.luckykuang.transaction.support.TenantContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/6 16:30
+ */
+class WebMvcConfigTest {
+
+    @Test
+    void clearsTenantWhenAsyncHandlingStarts() throws Exception {
+        ExposedRegistry registry = new ExposedRegistry();
+        new WebMvcConfig().addInterceptors(registry);
+        AsyncHandlerInterceptor interceptor = assertInstanceOf(AsyncHandlerInterceptor.class,
+                registry.getInterceptors().get(0));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(WebMvcConfig.TENANT_HEADER, "tenant-a");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        interceptor.preHandle(request, response, new Object());
+        assertEquals("tenant-a", TenantContext.current());
+        interceptor.afterConcurrentHandlingStarted(request, response, new Object());
+        assertEquals(TenantContext.DEFAULT_TENANT, TenantContext.current());
+    }
+
+    private static class ExposedRegistry extends InterceptorRegistry {
+        @Override
+        protected List<Object> getInterceptors() {
+            return super.getInterceptors();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.entity;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/11/30 11:00
+ */
+class UserBatchTest {
+
+    @Test
+    void deserializesColumns() throws Exception {
+        String json = """
+                [{"id":1,"name":"张三","age":18,"gender":"男","extra":{"a":[1]}},
+                 {"name":null,"age":"20","gender":"女"},
+                 {"name":"李四","gender":"男"}]
+                """;
+        UserBatch batch = new ObjectMapper().readValue(json, UserBatch.class);
+        assertEquals(3, batch.size());
+        assertEquals("张三", batch.getName(0));
+        assertEquals(18, batch.getAgeInt(0));
+        assertNull(batch.getName(1));
+        assertEquals(20, batch.getAge(1));
+        assertTrue(batch.isAgeNull(2));
+        assertSame(batch.getGender(0), batch.getGender(2));
+        assertEquals(6, batch.getNameBytes(0));
+        User user = batch.get(2);
+        assertEquals("李四", user.getName());
+        assertNull(user.getAge());
+        assertNull(user.getId());
+    }
+
+    @Test
+    void coercesAgeLikeUser() throws Exception {
+        String json = """
+                [{"age":20.0},{"age":" 21 "},{"age":""},{"age":22.7},{"age":null}]
+                """;
+        ObjectMapper objectMapper = new ObjectMapper();
+        UserBatch batch = objectMapper.readValue(json, UserBatch.class);
+        List<User> users = objectMapper.readValue(json, new TypeReference<List<User>>() {
+        });
+        assertEquals(users.size(), batch.size());
+        for (int i = 0; i < users.size(); i++) {
+            assertEquals(users.get(i).getAge(), batch.getAge(i));
+        }
+        assertEquals(20, batch.getAge(0));
+    }
+
+    @Test
+    void growsAndSlices() {
+        UserBatch batch = new UserBatch();
+        for (int i = 0; i < 5000; i++) {
+            batch.add("user" + i, i, i % 2 == 0 ? "男" : null);
+        }
+        UserBatch.Slice slice = batch.subList(1000, 3000).subList(500, 1000);
+        assertEquals(500, slice.size());
+        assertEquals(1500, slice.getFrom());
+        assertEquals("user1500", slice.get(0).getName());
+        assertNull(slice.get(1).getGender());
+        List<User> users = batch.subList(4998, 5000);
+        assertEquals(4999, users.get(1).getAge());
+    }
+}
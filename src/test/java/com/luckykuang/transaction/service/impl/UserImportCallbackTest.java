@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.entity.UserBatch;
+import com.luckykuang.transaction.support.WriteMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/6 14:00
+ */
+class UserImportCallbackTest {
+
+    @Test
+    void columnarContentHashMatchesUsers() {
+        UserBatch batch = new UserBatch();
+        batch.add("张三", 18, "男");
+        batch.add(null, null, null);
+        batch.add("李四", 20, "女");
+        List<User> users = new ArrayList<>(batch);
+        UserImportCallback callback = new UserImportCallback("test", WriteMode.SIMPLE, 100, null, new ReentrantLock());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(callback.contentHash(users.get(i)), callback.contentHash(batch, i));
+        }
+        UserBatch.Slice slice = batch.subList(1, 3);
+        for (int i = 0; i < slice.size(); i++) {
+            assertEquals(callback.contentHash(users.get(i + 1)), callback.contentHash(slice, i));
+        }
+    }
+}
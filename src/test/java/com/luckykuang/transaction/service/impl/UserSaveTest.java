@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.UserBatch;
+import com.luckykuang.transaction.service.UserService;
+import com.luckykuang.transaction.support.WriteMode;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 按列存储的用户按各种写入方式导入
+ * @author luckykuang
+ * @date 2023/12/5 14:00
+ */
+@ActiveProfiles("h2")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+class UserSaveTest {
+    private static final int ROWS = 95;
+
+    @Resource
+    private UserService userService;
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @ParameterizedTest
+    @EnumSource(WriteMode.class)
+    void replacesUsersFromColumns(WriteMode writeMode) {
+        jdbcTemplate.update("DELETE FROM t_user");
+        // 指定主键，避免与号段分配的主键冲突
+        jdbcTemplate.update("INSERT INTO t_user (id, name, age, gender) VALUES (-1, '旧数据', 1, '男')");
+        UserBatch users = new UserBatch();
+        for (int i = 0; i < ROWS; i++) {
+            users.add("用户" + i, i % 10 == 0 ? null : i, i % 2 == 0 ? "男" : "女");
+        }
+
+        userService.saveUsersByInvokeAll(users, writeMode).join();
+
+        assertEquals(ROWS, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM t_user", Integer.class));
+        assertEquals(ROWS, jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT id) FROM t_user", Integer.class));
+        assertEquals(List.of("用户0,null,男", "用户1,1,女", "用户10,null,男"),
+                jdbcTemplate.query("SELECT name, age, gender FROM t_user WHERE name IN ('用户0', '用户1', '用户10') ORDER BY name",
+                        (resultSet, i) -> resultSet.getString(1) + "," + resultSet.getObject(2) + "," + resultSet.getString(3)));
+    }
+}
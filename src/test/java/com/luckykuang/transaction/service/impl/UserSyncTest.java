@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.User;
+import com.luckykuang.transaction.service.SyncResult;
+import com.luckykuang.transaction.service.UserService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/5 10:00
+ */
+@ActiveProfiles("h2")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+class UserSyncTest {
+    @Resource
+    private UserService userService;
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM t_user");
+        // 指定主键，避免与号段分配的主键冲突
+        jdbcTemplate.update("INSERT INTO t_user (id, name, age, gender) VALUES (-5, '张三', 18, '男'), "
+                + "(-4, '李四', 20, '女'), (-3, '王五', 30, NULL), (-2, '赵六', 40, '男'), (-1, '赵六', 41, '男')");
+    }
+
+    @Test
+    void countsInsertsUpdatesDeletesAndUnchanged() {
+        SyncResult result = userService.syncUsers(List.of(
+                user("张三", 18, "男"),
+                user("李四", 21, "女"),
+                // 业务主键中的gender为null，与已有数据相同
+                user("王五", 30, null),
+                user("孙七", null, "女"),
+                // 与已有的王五只差gender是否为null，不是同一个业务主键
+                user("王五", 30, "null"))).join();
+
+        // 重复的赵六全部删除
+        assertEquals(new SyncResult(2, 1, 2, 2), result);
+        assertEquals(List.of("孙七,null,女", "张三,18,男", "李四,21,女", "王五,30,null", "王五,30,null"),
+                jdbcTemplate.query("SELECT name, age, gender FROM t_user ORDER BY name, gender",
+                        (resultSet, i) -> resultSet.getString(1) + "," + resultSet.getObject(2) + "," + resultSet.getString(3)));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM t_user WHERE name = '王五' AND gender IS NULL", Integer.class));
+    }
+
+    @Test
+    void unchangedDataWritesNothing() {
+        SyncResult result = userService.syncUsers(List.of(
+                user("张三", 18, "男"), user("李四", 20, "女"), user("王五", 30, null), user("赵六", 40, "男"))).join();
+
+        // 已有数据中重复的赵六只保留第一条
+        assertEquals(new SyncResult(0, 0, 1, 4), result);
+        assertEquals(4, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM t_user", Integer.class));
+    }
+
+    private static User user(String name, Integer age, String gender) {
+        User user = new User();
+        user.setName(name);
+        user.setAge(age);
+        user.setGender(gender);
+        return user;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.service.impl;
+
+import com.luckykuang.transaction.entity.UserBatch;
+import com.luckykuang.transaction.support.WriteMode;
+import org.apache.ibatis.session.SqlSession;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/6 16:00
+ */
+class UserWriteCallbackTest {
+
+    @Test
+    void splitsColumnarInsertAtPlaceholderLimit() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:user_write;MODE=MySQL;DATABASE_TO_LOWER=TRUE");
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE t_user_split (id INT PRIMARY KEY, name VARCHAR(64), age INT, gender VARCHAR(8))");
+            }
+            List<Integer> placeholders = new ArrayList<>();
+            Connection recording = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("prepareStatement")) {
+                            placeholders.add((int) ((String) args[0]).chars().filter(c -> c == '?').count());
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+            SqlSession sqlSession = (SqlSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{SqlSession.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("getConnection")) {
+                            return recording;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+            int rows = UserWriteCallback.MAX_STATEMENT_ROWS * 2 + 10;
+            UserBatch batch = new UserBatch();
+            for (int i = 0; i < rows + 1; i++) {
+                batch.add("user" + i, i % 100, i % 2 == 0 ? "男" : "女");
+            }
+            UserWriteCallback callback = new UserWriteCallback(WriteMode.SIMPLE, 100, "t_user_split", null);
+            assertEquals(rows, callback.write(sqlSession, batch.subList(1, rows + 1), 1));
+            assertEquals(3, placeholders.size());
+            assertTrue(placeholders.stream().allMatch(count -> count <= 65535));
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*), MAX(id) FROM t_user_split WHERE name = 'user' || id")) {
+                resultSet.next();
+                assertEquals(rows, resultSet.getInt(1));
+                assertEquals(rows, resultSet.getInt(2));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/11/9 15:10
+ */
+class AdaptiveChunkSizerTest {
+
+    @Test
+    void initialSizeSplitsPayloadAcrossWorkers() {
+        TransactionProperties.Chunk chunk = new TransactionProperties.Chunk();
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(chunk, 100_000, 8);
+        // 100000 / (8 * 4)
+        assertEquals(3125, sizer.nextSize());
+    }
+
+    @Test
+    void initialSizeLimitedByStatementBytes() {
+        TransactionProperties.Chunk chunk = new TransactionProperties.Chunk();
+        chunk.setMaxStatementBytes(DataSize.ofKilobytes(64));
+        chunk.setEstimatedRowBytes(128);
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(chunk, 100_000, 8);
+        assertEquals(512, sizer.nextSize());
+    }
+
+    @Test
+    void adaptsToObservedLatency() {
+        TransactionProperties.Chunk chunk = new TransactionProperties.Chunk();
+        chunk.setTargetLatency(Duration.ofMillis(100));
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(chunk, 100_000, 8);
+        int initial = sizer.nextSize();
+        // 每行1ms，目标100ms，逐步缩小到100行
+        for (int i = 0; i < 20; i++) {
+            int rows = sizer.nextSize();
+            sizer.record(rows, rows * 64L, rows * 1_000_000L);
+        }
+        assertEquals(100, sizer.nextSize());
+        // 每行10us，逐步放大，但不超过最大行数
+        for (int i = 0; i < 20; i++) {
+            int rows = sizer.nextSize();
+            sizer.record(rows, rows * 64L, rows * 10_000L);
+        }
+        assertTrue(sizer.nextSize() > initial);
+        assertEquals(chunk.getMaxSize(), sizer.nextSize());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/1 10:30
+ */
+class ConcurrencyLimiterTest {
+
+    private static ConcurrencyLimiter limiter(int initialLimit) throws Exception {
+        TransactionProperties transactionProperties = new TransactionProperties();
+        transactionProperties.getLimiter().setInitialLimit(initialLimit);
+        transactionProperties.getLimiter().setMaxLimit(32);
+        return new ConcurrencyLimiter(transactionProperties, mock(DataSource.class), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void growsWhileLatencyStaysFlat() throws Exception {
+        ConcurrencyLimiter limiter = limiter(4);
+        for (int i = 0; i < 10; i++) {
+            int limit = limiter.getLimit();
+            for (int j = 0; j < limit; j++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            for (int j = 0; j < limit; j++) {
+                limiter.release(100, 100_000_000L, false);
+            }
+        }
+        assertTrue(limiter.getLimit() > 4);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() throws Exception {
+        ConcurrencyLimiter limiter = limiter(16);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(100, 100_000_000L, false);
+        // 单行耗时翻倍，估算排队数为limit/2，超过beta
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(100, 200_000_000L, false);
+        }
+        assertEquals(13, limiter.getLimit());
+    }
+
+    @Test
+    void backsOffOnOverload() throws Exception {
+        ConcurrencyLimiter limiter = limiter(4);
+        limiter.overloaded();
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/6 15:30
+ */
+class ConnectionBudgetTest {
+
+    @Test
+    void leavesOneConnectionOutOfBudget() throws Exception {
+        ConnectionBudget budget = new ConnectionBudget(pool(3));
+        assertEquals(1, budget.maxWorkers(4));
+        assertEquals(2, budget.reserve(4));
+        budget.release(2);
+    }
+
+    @Test
+    void rejectsPoolTooSmallForMultiThreadTransaction() {
+        assertThrows(IllegalStateException.class, () -> new ConnectionBudget(pool(2)));
+    }
+
+    private static HikariDataSource pool(int size) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setMaximumPoolSize(size);
+        return dataSource;
+    }
+}
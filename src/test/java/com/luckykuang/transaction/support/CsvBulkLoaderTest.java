@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author luckykuang
+ * @date 2023/11/29 10:30
+ */
+class CsvBulkLoaderTest {
+
+    @Test
+    void encodesQuotesBackslashesAndNulls() {
+        List<Object[]> rows = List.of(new Object[]{"a\"b", 1, null}, new Object[]{"c\\d", null, "e,f"});
+        String csv = new String(CsvBulkLoader.encode(rows, row -> row));
+        assertEquals("\"a\\\"b\",1,\\N\n\"c\\\\d\",\\N,\"e,f\"\n", csv);
+    }
+
+    @Test
+    void loadsIntoH2() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        List<Object[]> rows = List.of(
+                new Object[]{"张三", 18, "男"},
+                new Object[]{"quote\"back\\slash", null, "comma,\nnewline"},
+                new Object[]{null, 20, ""});
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t_user (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255), age INT, gender VARCHAR(255))");
+            connection.setAutoCommit(false);
+            int count = CsvBulkLoader.load(connection, "t_user", List.of("name", "age", "gender"), rows, row -> row);
+            connection.commit();
+            assertEquals(3, count);
+            List<Object[]> loaded = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT name, age, gender FROM t_user ORDER BY id")) {
+                while (resultSet.next()) {
+                    loaded.add(new Object[]{resultSet.getString(1), resultSet.getObject(2), resultSet.getString(3)});
+                }
+            }
+            assertEquals(rows.size(), loaded.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(Arrays.asList(rows.get(i)), Arrays.asList(loaded.get(i)));
+            }
+        }
+    }
+
+    @Test
+    void rejectsSkippedRowsAndWarnings() throws Exception {
+        assertEquals(3, CsvBulkLoader.verify(statement(null), 3, 3));
+        // LOAD DATA LOCAL跳过重复的行
+        assertThrows(SQLException.class, () -> CsvBulkLoader.verify(statement(null), 2, 3));
+        // 值被改写时行数不变但有警告
+        SQLException e = assertThrows(SQLException.class,
+                () -> CsvBulkLoader.verify(statement(new SQLWarning("Incorrect integer value")), 3, 3));
+        assertEquals("Incorrect integer value", e.getNextException().getMessage());
+    }
+
+    private static Statement statement(SQLWarning warning) {
+        return (Statement) Proxy.newProxyInstance(CsvBulkLoaderTest.class.getClassLoader(),
+                new Class<?>[]{Statement.class}, (proxy, method, args) -> {
+                    if ("getWarnings".equals(method.getName())) {
+                        return warning;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
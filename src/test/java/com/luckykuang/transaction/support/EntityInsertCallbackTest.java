@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.luckykuang.transaction.entity.User;
+import lombok.Data;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.type.EnumOrdinalTypeHandler;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/4 18:20
+ */
+class EntityInsertCallbackTest {
+
+    @BeforeAll
+    static void initTableInfo() {
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(configuration, ""), User.class);
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(configuration, ""), Order.class);
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(configuration, ""), UuidLongKey.class);
+    }
+
+    enum Status {
+        CREATED, PAID
+    }
+
+    @Data
+    @TableName("t_order")
+    static class Order {
+        @TableId(type = IdType.ASSIGN_ID)
+        private Long id;
+        private Status status;
+        @TableField(typeHandler = EnumOrdinalTypeHandler.class)
+        private Status priority;
+    }
+
+    @Data
+    @TableName("t_uuid")
+    static class UuidLongKey {
+        @TableId(type = IdType.ASSIGN_UUID)
+        private Long id;
+    }
+
+    @Test
+    void insertsChunksWithReusedStatement() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        EntityInsertCallback<User> callback = new EntityInsertCallback<>(User.class, 2);
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t_user (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255), age INT, gender VARCHAR(255))");
+            assertEquals(3, callback.insert(connection, List.of(user(10, "张三", 18, "男"), user(11, "李四", null, "女"),
+                    user(12, null, 20, null))));
+            assertEquals(2, callback.insert(connection, List.of(user(20, "王五", 30, "男"), user(21, "赵六", 40, "女"))));
+            List<String> rows = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT id, name, age, gender FROM t_user ORDER BY id")) {
+                while (resultSet.next()) {
+                    rows.add(resultSet.getInt(1) + "," + resultSet.getString(2) + "," + resultSet.getObject(3)
+                            + "," + resultSet.getString(4));
+                }
+            }
+            assertEquals(List.of("10,张三,18,男", "11,李四,null,女", "12,null,20,null", "20,王五,30,男", "21,赵六,40,女"), rows);
+        }
+    }
+
+    @Test
+    void closesStatementWhenConnectionReleased() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        EntityInsertCallback<User> callback = new EntityInsertCallback<>(User.class, 100);
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t_user (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255), age INT, gender VARCHAR(255))");
+            List<PreparedStatement> prepared = new ArrayList<>();
+            Connection tracking = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        Object result = method.invoke(connection, args);
+                        if (result instanceof PreparedStatement preparedStatement) {
+                            prepared.add(preparedStatement);
+                        }
+                        return result;
+                    });
+            callback.insert(tracking, List.of(user(1, "张三", 18, "男")));
+            callback.insert(tracking, List.of(user(2, "李四", 20, "女")));
+            assertEquals(1, prepared.size());
+            assertFalse(prepared.get(0).isClosed());
+
+            callback.close(tracking);
+            assertTrue(prepared.get(0).isClosed());
+
+            // 关闭后再写入重新预编译
+            assertEquals(1, callback.insert(tracking, List.of(user(3, "王五", 30, "男"))));
+            assertEquals(2, prepared.size());
+            callback.close(tracking);
+            assertTrue(prepared.get(1).isClosed());
+        }
+    }
+
+    @Test
+    void bindsThroughTypeHandlersAndAssignsIds() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        EntityInsertCallback<Order> callback = new EntityInsertCallback<>(Order.class, 100);
+        Order paid = order(Status.PAID, Status.PAID);
+        Order created = order(Status.CREATED, null);
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t_order (id BIGINT PRIMARY KEY, status VARCHAR(16), priority INT)");
+            assertEquals(2, callback.insert(connection, List.of(paid, created)));
+            callback.close(connection);
+            assertNotNull(paid.getId());
+            assertNotNull(created.getId());
+            assertNotEquals(paid.getId(), created.getId());
+            List<String> rows = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT id, status, priority FROM t_order ORDER BY id")) {
+                while (resultSet.next()) {
+                    rows.add(resultSet.getLong(1) + "," + resultSet.getString(2) + "," + resultSet.getObject(3));
+                }
+            }
+            // 默认的EnumTypeHandler写入名称，字段指定的EnumOrdinalTypeHandler写入序号
+            assertEquals(List.of(paid.getId() + ",PAID,1", created.getId() + ",CREATED,null").stream().sorted().toList(),
+                    rows.stream().sorted().toList());
+        }
+    }
+
+    @Test
+    void rejectsUnsupportedIdType() {
+        assertThrows(IllegalArgumentException.class, () -> new EntityInsertCallback<>(UuidLongKey.class, 100));
+    }
+
+    @Test
+    void rejectsClassWithoutTableInfo() {
+        assertThrows(IllegalArgumentException.class, () -> new EntityInsertCallback<>(String.class, 100));
+    }
+
+    private static Order order(Status status, Status priority) {
+        Order order = new Order();
+        order.setStatus(status);
+        order.setPriority(priority);
+        return order;
+    }
+
+    private static User user(Integer id, String name, Integer age, String gender) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setAge(age);
+        user.setGender(gender);
+        return user;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/4 14:00
+ */
+class FairChunkSchedulerTest {
+
+    private static FairChunkScheduler scheduler(TransactionProperties transactionProperties, int limit) throws Exception {
+        transactionProperties.getLimiter().setInitialLimit(limit);
+        transactionProperties.getLimiter().setMinLimit(limit);
+        transactionProperties.getLimiter().setMaxLimit(limit);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(transactionProperties, mock(DataSource.class), new SimpleMeterRegistry());
+        FairChunkScheduler scheduler = new FairChunkScheduler();
+        ReflectionTestUtils.setField(scheduler, "concurrencyLimiter", limiter);
+        ReflectionTestUtils.setField(scheduler, "transactionProperties", transactionProperties);
+        return scheduler;
+    }
+
+    @Test
+    void alternatesBetweenTransactions() throws Exception {
+        FairChunkScheduler scheduler = scheduler(new TransactionProperties(), 1);
+        FairChunkScheduler.Ticket big = scheduler.open("a");
+        FairChunkScheduler.Ticket small = scheduler.open("b");
+        // 占用唯一的许可，让两个事务的子线程排队
+        assertTrue(scheduler.acquire(big, () -> false));
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            threads.add(worker(scheduler, big, "big", order, done));
+        }
+        threads.add(worker(scheduler, small, "small", order, done));
+        threads.forEach(Thread::start);
+        Thread.sleep(200);
+        scheduler.release(big, 100, 1_000_000, false);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // 小事务最多等待大事务的一个分片
+        assertTrue(order.indexOf("small") <= 1, order.toString());
+    }
+
+    @Test
+    void tenantCapSkipsTenant() throws Exception {
+        TransactionProperties transactionProperties = new TransactionProperties();
+        transactionProperties.getFairness().setDefaultTenantMaxInFlight(1);
+        FairChunkScheduler scheduler = scheduler(transactionProperties, 2);
+        FairChunkScheduler.Ticket ticket = scheduler.open("a");
+        assertTrue(scheduler.acquire(ticket, () -> false));
+        // 还有空闲许可，但租户a已达上限
+        assertFalse(scheduler.acquire(scheduler.open("a"), () -> true));
+        assertTrue(scheduler.acquire(scheduler.open("b"), () -> false));
+        scheduler.release(ticket, 0, 0, false);
+        assertTrue(scheduler.acquire(scheduler.open("a"), () -> false));
+    }
+
+    private static Thread worker(FairChunkScheduler scheduler, FairChunkScheduler.Ticket ticket, String name,
+                                 List<String> order, CountDownLatch done) {
+        return new Thread(() -> {
+            try {
+                if (scheduler.acquire(ticket, () -> false)) {
+                    order.add(name);
+                    Thread.sleep(10);
+                    scheduler.release(ticket, 100, 1_000_000, false);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        });
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/4 16:40
+ */
+class ImportJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void emptyWithoutStart() throws Exception {
+        Path file = dir.resolve("a.journal");
+        assertTrue(ImportJournal.read(file).isEmpty());
+        try (ImportJournal journal = ImportJournal.open(file)) {
+            journal.chunk(0);
+        }
+        assertTrue(ImportJournal.read(file).isEmpty());
+    }
+
+    @Test
+    void recordsCommittedChunksAndPublish() throws Exception {
+        Path file = dir.resolve("b.journal");
+        try (ImportJournal journal = ImportJournal.open(file)) {
+            journal.start(12000, 5000, 101, "1f");
+            journal.chunk(2);
+            journal.chunk(0);
+        }
+        ImportJournal.State state = ImportJournal.read(file).orElseThrow();
+        assertEquals(12000, state.rows());
+        assertEquals(5000, state.chunkSize());
+        assertEquals(101, state.firstId());
+        assertEquals("1f", state.payloadHash());
+        assertTrue(state.chunks().get(0));
+        assertFalse(state.chunks().get(1));
+        assertTrue(state.chunks().get(2));
+        assertFalse(state.published());
+        try (ImportJournal journal = ImportJournal.open(file)) {
+            journal.chunk(1);
+            journal.swapping();
+        }
+        state = ImportJournal.read(file).orElseThrow();
+        assertEquals(3, state.chunks().cardinality());
+        assertTrue(state.swapping());
+        assertFalse(state.published());
+        try (ImportJournal journal = ImportJournal.open(file)) {
+            journal.published();
+        }
+        assertTrue(ImportJournal.read(file).orElseThrow().published());
+    }
+
+    @Test
+    void readsStartWithoutPayloadHash() throws Exception {
+        // 旧版本的开始记录没有数据摘要
+        Path file = dir.resolve("d.journal");
+        Files.writeString(file, "START 30 10 1\n", StandardCharsets.UTF_8);
+        ImportJournal.State state = ImportJournal.read(file).orElseThrow();
+        assertEquals(30, state.rows());
+        assertNull(state.payloadHash());
+    }
+
+    @Test
+    void ignoresAndTruncatesTornRecord() throws Exception {
+        Path file = dir.resolve("c.journal");
+        try (ImportJournal journal = ImportJournal.open(file)) {
+            journal.start(30, 10, 1, "0");
+        }
+        // 写入CHUNK 2时宕机，只写入了一部分
+        Files.writeString(file, "CHUNK", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(0, ImportJournal.read(file).orElseThrow().chunks().cardinality());
+        try (ImportJournal journal = ImportJournal.open(file)) {
+            journal.chunk(1);
+        }
+        ImportJournal.State state = ImportJournal.read(file).orElseThrow();
+        assertEquals(1, state.chunks().cardinality());
+        assertTrue(state.chunks().get(1));
+    }
+}
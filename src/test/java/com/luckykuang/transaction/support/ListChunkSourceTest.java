@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/6 15:00
+ */
+class ListChunkSourceTest {
+
+    @Test
+    void chunksDoNotCrossGroups() {
+        List<String> data = List.of("a1", "a2", "a3", "b1", "c1", "c2", "c3", "c4", "c5");
+        ListChunkSource<String> source = new ListChunkSource<>(data, row -> row.charAt(0));
+        List<List<String>> chunks = new ArrayList<>();
+        for (List<String> chunk = source.next(2); !chunk.isEmpty(); chunk = source.next(2)) {
+            chunks.add(chunk);
+        }
+        assertEquals(List.of(List.of("a1", "a2"), List.of("a3"), List.of("b1"), List.of("c1", "c2"),
+                List.of("c3", "c4"), List.of("c5")), chunks);
+        assertTrue(source.isExhausted());
+    }
+
+    @Test
+    void chunksBySizeWithoutGroups() {
+        ListChunkSource<Integer> source = new ListChunkSource<>(List.of(1, 2, 3, 4, 5));
+        assertEquals(List.of(1, 2, 3), source.next(3));
+        assertEquals(List.of(4, 5), source.next(3));
+        assertTrue(source.next(3).isEmpty());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import jakarta.annotation.Resource;
+import org.apache.ibatis.session.SqlSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/5 11:30
+ */
+@ActiveProfiles("h2")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+class MultiThreadTransactionTemplateTest {
+    @Resource
+    private MultiThreadTransactionTemplate multiThreadTransactionTemplate;
+    @Resource
+    private TransactionProperties transactionProperties;
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM t_user");
+        jdbcTemplate.update("INSERT INTO t_user (id, name, age, gender) VALUES (1, 'old', 1, '男')");
+        transactionProperties.getChunk().setFixedSize(10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transactionProperties.getChunk().setFixedSize(0);
+        transactionProperties.setParallelism(4);
+    }
+
+    @Test
+    void commitsPrepareAndAllWorkers() throws Exception {
+        TransactionProgress progress = new TransactionProgress();
+        int count = multiThreadTransactionTemplate.execute(new ListChunkSource<>(rows(100)), DispatchMode.SUBMIT,
+                new InsertCallback(-1), progress);
+
+        assertEquals(100, count);
+        assertEquals(List.of(100), jdbcTemplate.queryForList("SELECT COUNT(*) FROM t_user", Integer.class));
+        assertEquals(TransactionProgress.State.COMMITTED, progress.snapshot().state());
+        assertEquals(10, progress.snapshot().chunks());
+    }
+
+    @Test
+    void oneFailedChunkRollsBackPrepareAndAllWorkers() {
+        TransactionProgress progress = new TransactionProgress();
+        assertThrows(SQLException.class, () -> multiThreadTransactionTemplate.execute(
+                new ListChunkSource<>(rows(100)), DispatchMode.INVOKE_ALL, new InsertCallback(57), progress));
+
+        // 前置的删除和其他子线程已写入的分片都被回滚
+        assertEquals(List.of("old"), jdbcTemplate.queryForList("SELECT name FROM t_user", String.class));
+        assertEquals(TransactionProgress.State.ROLLED_BACK, progress.snapshot().state());
+    }
+
+    @Test
+    void failureCancelsRunningStatements() {
+        long start = System.nanoTime();
+        assertThrows(SQLException.class, () -> multiThreadTransactionTemplate.execute(rows(20), DispatchMode.SUBMIT,
+                new TransactionCallback<Integer>() {
+                    @Override
+                    public int write(SqlSession sqlSession, List<Integer> chunk) throws Exception {
+                        if (chunk.get(0) == 0) {
+                            // 不取消时需要执行很久
+                            try (Statement statement = sqlSession.getConnection().createStatement()) {
+                                StatementCancelInterceptor.register(statement);
+                                statement.executeQuery("SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000000000)").close();
+                            }
+                            return chunk.size();
+                        }
+                        Thread.sleep(200);
+                        throw new IllegalStateException("写入失败");
+                    }
+                }));
+        assertTrue(System.nanoTime() - start < 10_000_000_000L, "正在执行的语句没有被取消");
+        assertEquals(List.of("old"), jdbcTemplate.queryForList("SELECT name FROM t_user", String.class));
+    }
+
+    @Test
+    void concurrentTransactionsLargerThanPoolAllCommit() throws Exception {
+        // 每个事务需要9个连接，三个事务同时执行超过连接池的10个
+        transactionProperties.setParallelism(8);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int offset = i * 1000;
+            futures.add(multiThreadTransactionTemplate.async(() -> multiThreadTransactionTemplate.execute(
+                    rows(200).stream().map(row -> row + offset).toList(), DispatchMode.COMPLETABLE_FUTURE,
+                    new SlowInsertCallback())));
+        }
+        for (CompletableFuture<Integer> future : futures) {
+            assertEquals(200, future.get(60, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of(601), jdbcTemplate.queryForList("SELECT COUNT(*) FROM t_user", Integer.class));
+    }
+
+    private static List<Integer> rows(int count) {
+        return IntStream.range(0, count).boxed().toList();
+    }
+
+    /**
+     * 没有前置操作，每个分片写入后停顿一会，保持连接被占用
+     */
+    private static class SlowInsertCallback implements TransactionCallback<Integer> {
+
+        @Override
+        public int write(SqlSession sqlSession, List<Integer> chunk) throws Exception {
+            int number = new InsertCallback(-1).write(sqlSession, chunk);
+            Thread.sleep(20);
+            return number;
+        }
+    }
+
+    /**
+     * 前置操作删除全部用户，每个分片写入对应的用户，写到failAt时失败
+     * 主键为行号加2，不与旧数据重复；不使用AUTO_INCREMENT，H2 2.1多个连接并发插入时可能分配出重复的自增主键
+     */
+    private record InsertCallback(int failAt) implements TransactionCallback<Integer> {
+
+        @Override
+        public void prepare(SqlSession sqlSession) throws Exception {
+            try (Statement statement = sqlSession.getConnection().createStatement()) {
+                statement.executeUpdate("DELETE FROM t_user");
+            }
+        }
+
+        @Override
+        public int write(SqlSession sqlSession, List<Integer> chunk) throws Exception {
+            try (PreparedStatement statement = sqlSession.getConnection().prepareStatement(
+                    "INSERT INTO t_user (id, name, age, gender) VALUES (?, ?, ?, '男')")) {
+                for (int row : chunk) {
+                    if (row == failAt) {
+                        throw new IllegalStateException("写入失败：" + row);
+                    }
+                    statement.setInt(1, row + 2);
+                    statement.setString(2, "user-" + row);
+                    statement.setInt(3, row);
+                    statement.addBatch();
+                }
+                return BatchResults.count(statement.executeBatch());
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import jakarta.annotation.Resource;
+import org.apache.ibatis.session.SqlSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/6 11:00
+ */
+@ActiveProfiles("h2")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+class ResumableImportTemplateTest {
+    private static final String TABLE = "t_import_test";
+    private static final String STAGING = TABLE + "_staging";
+    private static final String OLD = TABLE + "_old";
+
+    @Resource
+    private ResumableImportTemplate resumableImportTemplate;
+    @Resource
+    private MultiThreadTransactionTemplate multiThreadTransactionTemplate;
+    @Resource
+    private TransactionProperties transactionProperties;
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DROP TABLE IF EXISTS " + TABLE + ", " + STAGING + ", " + OLD);
+        jdbcTemplate.update("CREATE TABLE " + TABLE + " (id BIGINT PRIMARY KEY, v INT)");
+        jdbcTemplate.update("INSERT INTO " + TABLE + " (id, v) VALUES (0, -1)");
+        jdbcTemplate.update("DELETE FROM t_user");
+        transactionProperties.getCheckpoint().setChunkSize(10);
+        transactionProperties.getChunk().setFixedSize(10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transactionProperties.getCheckpoint().setChunkSize(5000);
+        transactionProperties.getChunk().setFixedSize(0);
+        transactionProperties.setParallelism(4);
+    }
+
+    @Test
+    void sharesSmallPoolWithMultiThreadTransaction() throws Exception {
+        // 可恢复导入的子线程写入每个分片时才获取连接，写入期间多线程事务开始执行并占满连接池的10个连接
+        transactionProperties.setParallelism(9);
+        TableImportCallback callback = new TableImportCallback(-1, false);
+        CompletableFuture<Integer> resumable = multiThreadTransactionTemplate.async(() ->
+                resumableImportTemplate.execute(importId(), rows(1000), callback));
+        callback.written.await(10, TimeUnit.SECONDS);
+        CompletableFuture<Integer> transaction = multiThreadTransactionTemplate.async(() ->
+                multiThreadTransactionTemplate.execute(rows(1000), DispatchMode.COMPLETABLE_FUTURE,
+                        new TransactionCallback<Integer>() {
+                            @Override
+                            public int write(SqlSession sqlSession, List<Integer> chunk) throws Exception {
+                                try (PreparedStatement statement = sqlSession.getConnection().prepareStatement(
+                                        "INSERT INTO t_user (id, name, age, gender) VALUES (?, ?, ?, '男')")) {
+                                    // 指定主键，H2 2.1多个连接并发插入时可能分配出重复的自增主键
+                                    for (int row : chunk) {
+                                        statement.setInt(1, row + 1);
+                                        statement.setString(2, "user-" + row);
+                                        statement.setInt(3, row);
+                                        statement.addBatch();
+                                    }
+                                    int number = BatchResults.count(statement.executeBatch());
+                                    Thread.sleep(20);
+                                    return number;
+                                }
+                            }
+                        }));
+
+        assertEquals(1000, transaction.get(60, TimeUnit.SECONDS));
+        assertEquals(1000, resumable.get(60, TimeUnit.SECONDS));
+        assertEquals(1000, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM t_user", Integer.class));
+        assertEquals(1000, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE, Integer.class));
+    }
+
+    @Test
+    void resumeAfterCrashBetweenSwapAndPublishedKeepsData() throws Exception {
+        String importId = importId();
+        // 替换之后、记录发布之前宕机
+        assertThrows(IllegalStateException.class,
+                () -> resumableImportTemplate.execute(importId, rows(100), new TableImportCallback(-1, true)));
+        assertEquals(100, count(TABLE));
+
+        assertEquals(0, resumableImportTemplate.execute(importId, rows(100), new TableImportCallback(-1, false)));
+        assertEquals(100, count(TABLE));
+        assertFalse(exists(STAGING));
+        assertFalse(exists(OLD));
+        // 已发布，再次提交直接返回
+        assertEquals(0, resumableImportTemplate.execute(importId, rows(100), new TableImportCallback(-1, false)));
+        assertEquals(100, count(TABLE));
+    }
+
+    @Test
+    void resumeWritesOnlyUncommittedChunks() throws Exception {
+        String importId = importId();
+        assertThrows(IllegalStateException.class,
+                () -> resumableImportTemplate.execute(importId, rows(100), new TableImportCallback(55, false)));
+        // 发布之前原表不受影响
+        assertEquals(1, count(TABLE));
+
+        int written = resumableImportTemplate.execute(importId, rows(100), new TableImportCallback(-1, false));
+        assertTrue(written > 0 && written < 100);
+        assertEquals(100, count(TABLE));
+        assertEquals(rows(100), jdbcTemplate.queryForList("SELECT v FROM " + TABLE + " ORDER BY id", Integer.class));
+    }
+
+    @Test
+    void resumeRejectsDifferentPayload() {
+        String importId = importId();
+        assertThrows(IllegalStateException.class,
+                () -> resumableImportTemplate.execute(importId, rows(100), new TableImportCallback(55, false)));
+
+        List<Integer> changed = new ArrayList<>(rows(100));
+        changed.set(3, 1000);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> resumableImportTemplate.execute(importId, changed, new TableImportCallback(-1, false)));
+        assertTrue(e.getMessage().contains("不一致"));
+        assertEquals(1, count(TABLE));
+    }
+
+    @Test
+    void rejectsImportIdWithUppercase() {
+        // 临时表名不区分大小写，"ABC"与"abc"会写入同一张临时表
+        assertThrows(IllegalArgumentException.class,
+                () -> resumableImportTemplate.execute("ABC", rows(10), new TableImportCallback(-1, false)));
+        assertEquals(1, count(TABLE));
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    private boolean exists(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.tables WHERE table_name = ?",
+                Integer.class, table) > 0;
+    }
+
+    private static String importId() {
+        return "test_" + UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+    }
+
+    private static List<Integer> rows(int count) {
+        return IntStream.range(0, count).boxed().toList();
+    }
+
+    /**
+     * 与用户导入相同：写入临时表，发布时与测试表替换
+     * 写到failAt时失败；crashAfterSwap时替换后、删除旧表之前失败，模拟替换后宕机
+     */
+    private static class TableImportCallback implements ResumableImportCallback<Integer> {
+        private final CountDownLatch written = new CountDownLatch(1);
+        private final int failAt;
+        private final boolean crashAfterSwap;
+
+        TableImportCallback(int failAt, boolean crashAfterSwap) {
+            this.failAt = failAt;
+            this.crashAfterSwap = crashAfterSwap;
+        }
+
+        @Override
+        public void prepare(SqlSession sqlSession, boolean resume) throws Exception {
+            try (Statement statement = sqlSession.getConnection().createStatement()) {
+                if (!resume) {
+                    statement.execute("DROP TABLE IF EXISTS " + STAGING);
+                }
+                statement.execute("CREATE TABLE IF NOT EXISTS " + STAGING + " (id BIGINT PRIMARY KEY, v INT)");
+            }
+        }
+
+        @Override
+        public long reserveIds(int rows) {
+            return 1;
+        }
+
+        @Override
+        public int write(SqlSession sqlSession, List<Integer> chunk, long firstId) throws Exception {
+            try (PreparedStatement delete = sqlSession.getConnection().prepareStatement(
+                    "DELETE FROM " + STAGING + " WHERE id >= ? AND id < ?")) {
+                delete.setLong(1, firstId);
+                delete.setLong(2, firstId + chunk.size());
+                delete.executeUpdate();
+            }
+            try (PreparedStatement statement = sqlSession.getConnection().prepareStatement(
+                    "INSERT INTO " + STAGING + " (id, v) VALUES (?, ?)")) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    if (chunk.get(i) == failAt) {
+                        throw new IllegalStateException("写入失败：" + failAt);
+                    }
+                    statement.setLong(1, firstId + i);
+                    statement.setInt(2, chunk.get(i));
+                    statement.addBatch();
+                }
+                int number = BatchResults.count(statement.executeBatch());
+                written.countDown();
+                Thread.sleep(20);
+                return number;
+            }
+        }
+
+        @Override
+        public void publish(SqlSession sqlSession) throws Exception {
+            try (Statement statement = sqlSession.getConnection().createStatement()) {
+                try (ResultSet resultSet = statement.executeQuery(
+                        "SELECT COUNT(*) FROM information_schema.tables WHERE table_name = '" + STAGING + "'")) {
+                    resultSet.next();
+                    if (resultSet.getInt(1) == 0) {
+                        statement.execute("DROP TABLE IF EXISTS " + OLD);
+                        return;
+                    }
+                }
+                statement.execute("DROP TABLE IF EXISTS " + OLD);
+                statement.execute("ALTER TABLE " + TABLE + " RENAME TO " + OLD);
+                statement.execute("ALTER TABLE " + STAGING + " RENAME TO " + TABLE);
+                if (crashAfterSwap) {
+                    throw new IllegalStateException("替换后宕机");
+                }
+                statement.execute("DROP TABLE " + OLD);
+            }
+        }
+    }
+}
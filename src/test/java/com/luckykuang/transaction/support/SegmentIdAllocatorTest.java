@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import com.luckykuang.transaction.config.TransactionProperties;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/4 14:30
+ */
+class SegmentIdAllocatorTest {
+    private JdbcDataSource dataSource;
+    private TransactionProperties transactionProperties;
+    private SegmentIdAllocator allocator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t_user (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255))");
+            statement.execute("CREATE TABLE t_sequence (name VARCHAR(64) PRIMARY KEY, next_value BIGINT NOT NULL)");
+            statement.execute("INSERT INTO t_user (id, name) VALUES (41, 'a')");
+        }
+        transactionProperties = new TransactionProperties();
+        transactionProperties.getId().setEnabled(true);
+        transactionProperties.getId().setBlockSize(100);
+        allocator = new SegmentIdAllocator(transactionProperties, dataSource);
+    }
+
+    @Test
+    void startsAfterMaxIdAndReservesBlocks() throws Exception {
+        assertEquals(42, allocator.allocate("t_user", 10));
+        assertEquals(52, allocator.allocate("t_user", 10));
+        assertEquals(142, nextValue());
+        // 剩余不够时丢弃，重新预留
+        assertEquals(142, allocator.allocate("t_user", 90));
+        assertEquals(242, nextValue());
+        // 超过号段大小时预留整个分片
+        assertEquals(242, allocator.allocate("t_user", 500));
+        assertEquals(742, nextValue());
+    }
+
+    @Test
+    void concurrentAllocationsDoNotOverlap() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(() -> allocator.allocate("t_user", 7)));
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Future<Long> future : futures) {
+                long first = future.get();
+                for (long id = first; id < first + 7; id++) {
+                    assertTrue(ids.add(id), "duplicate id " + id);
+                }
+            }
+            assertEquals(1400, ids.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void initSeedsSequenceWithoutWaitingForImports() throws Exception {
+        try (Connection importing = dataSource.getConnection();
+             Statement statement = importing.createStatement()) {
+            // 导入中未提交的全表删除
+            importing.setAutoCommit(false);
+            statement.executeUpdate("DELETE FROM t_user");
+            allocator.init();
+            importing.rollback();
+        }
+        assertEquals(42, nextValue());
+        assertEquals(42, allocator.allocate("t_user", 10));
+    }
+
+    @Test
+    void refillDoesNotBlockAllocationsFromCurrentSegment() throws Exception {
+        AtomicBoolean gate = new AtomicBoolean();
+        CountDownLatch connecting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DataSource gated = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getConnection") && gate.get()) {
+                        connecting.countDown();
+                        release.await();
+                    }
+                    try {
+                        return method.invoke(dataSource, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        SegmentIdAllocator gatedAllocator = new SegmentIdAllocator(transactionProperties, gated);
+        assertEquals(42, gatedAllocator.allocate("t_user", 10));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            gate.set(true);
+            // 剩余90个不够，需要预留新号段，获取连接时被阻塞
+            Future<Long> refill = executor.submit(() -> gatedAllocator.allocate("t_user", 95));
+            assertTrue(connecting.await(10, TimeUnit.SECONDS));
+            assertEquals(52, gatedAllocator.allocate("t_user", 10));
+            release.countDown();
+            assertEquals(142, refill.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private long nextValue() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT next_value FROM t_sequence WHERE name = 't_user'")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
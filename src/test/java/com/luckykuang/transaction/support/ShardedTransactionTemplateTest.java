@@ -0,0 +1,303 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.annotation.Isolation;
+
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用多个内存H2数据库模拟分片
+ * @author luckykuang
+ * @date 2023/11/27 14:00
+ */
+class ShardedTransactionTemplateTest {
+    private static final int SHARDS = 3;
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, XADataSource> shards = new LinkedHashMap<>();
+    private final Map<String, JdbcDataSource> databases = new LinkedHashMap<>();
+    private ExecutorService executor;
+    private XaRecoveryLog recoveryLog;
+    private ShardedTransactionTemplate template;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        String database = UUID.randomUUID().toString();
+        for (int i = 0; i < SHARDS; i++) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:" + database + "_" + i + ";DB_CLOSE_DELAY=-1");
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE t_item (id INT PRIMARY KEY)");
+            }
+            shards.put("shard" + i, dataSource);
+            databases.put("shard" + i, dataSource);
+        }
+        executor = Executors.newFixedThreadPool(SHARDS);
+        recoveryLog = new XaRecoveryLog(tempDir.resolve("xa-recovery.log"));
+        template = new ShardedTransactionTemplate(shards, executor, recoveryLog,
+                new TransactionMetrics(new SimpleMeterRegistry()), "node1", Isolation.READ_COMMITTED, 50,
+                Duration.ofMillis(10), Duration.ofMillis(40));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        template.close();
+        executor.shutdownNow();
+        for (JdbcDataSource dataSource : databases.values()) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("SHUTDOWN");
+            }
+        }
+    }
+
+    @Test
+    void commitsAllShards() throws Exception {
+        List<Integer> items = IntStream.range(0, 1000).boxed().toList();
+        assertEquals(1000, template.execute(items, new ItemCallback()));
+        int total = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            List<Integer> ids = ids(i);
+            assertTrue(ids.size() > 0);
+            for (Integer id : ids) {
+                assertEquals(i, template.shardOf(id));
+            }
+            total += ids.size();
+        }
+        assertEquals(1000, total);
+        assertTrue(recoveryLog.pendingCommits().isEmpty());
+    }
+
+    @Test
+    void rollsBackAllShardsWhenOneFails() throws Exception {
+        List<Integer> items = new ArrayList<>(IntStream.range(0, 1000).boxed().toList());
+        // 主键重复，只有一个分片会失败
+        items.add(999);
+        assertThrows(SQLException.class, () -> template.execute(items, new ItemCallback()));
+        for (int i = 0; i < SHARDS; i++) {
+            assertEquals(0, ids(i).size());
+        }
+        assertTrue(recoveryLog.pendingCommits().isEmpty());
+    }
+
+    @Test
+    void retriesFailedCommitOnNewConnection() throws Exception {
+        AtomicInteger failures = failCommits("shard0", 2);
+        List<Integer> items = IntStream.range(0, 1000).boxed().toList();
+        assertEquals(1000, template.execute(items, new ItemCallback()));
+        assertEquals(0, failures.get());
+        assertEquals(1000, IntStream.range(0, SHARDS).map(i -> assertDoesNotThrow(() -> ids(i)).size()).sum());
+        assertTrue(recoveryLog.pendingCommits().isEmpty());
+    }
+
+    @Test
+    void reportsInDoubtAndKeepsCommittingInBackground() throws Exception {
+        // 原连接提交一次，之后按10、20、40毫秒重试三次，仍然失败时转到后台
+        AtomicInteger failures = failCommits("shard0", 6);
+        List<Integer> items = IntStream.range(0, 1000).boxed().toList();
+        assertThrows(InDoubtCommitException.class, () -> template.execute(items, new ItemCallback()));
+        assertTrue(ids(0).isEmpty());
+        assertEquals(1, recoveryLog.pendingCommits().size());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (ids(0).isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1000, IntStream.range(0, SHARDS).map(i -> assertDoesNotThrow(() -> ids(i)).size()).sum());
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!recoveryLog.pendingCommits().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(recoveryLog.pendingCommits().isEmpty());
+    }
+
+    @Test
+    void recoverOnlyResolvesOwnBranches() throws Exception {
+        Xid own = new ShardedTransactionTemplate.ShardXid("node1", UUID.randomUUID().toString(), "shard0");
+        Xid other = new ShardedTransactionTemplate.ShardXid("node2", UUID.randomUUID().toString(), "shard0");
+        XAConnection ownBranch = prepare(own, 1);
+        XAConnection otherBranch = prepare(other, 2);
+        try {
+            template.recover();
+            // 本实例没有提交决定的分支回滚，其他实例的分支保持准备状态
+            List<Xid> inDoubt = inDoubt();
+            assertEquals(1, inDoubt.size());
+            assertTrue(Arrays.equals(other.getGlobalTransactionId(), inDoubt.get(0).getGlobalTransactionId()));
+            otherBranch.getXAResource().commit(other, false);
+            assertEquals(List.of(2), ids(0));
+        } finally {
+            ownBranch.close();
+            otherBranch.close();
+        }
+    }
+
+    @Test
+    void rejectsInvalidInstanceId() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardedTransactionTemplate(shards, executor,
+                recoveryLog, new TransactionMetrics(new SimpleMeterRegistry()), "a:b", Isolation.DEFAULT, 50,
+                Duration.ofMillis(10), Duration.ofMillis(40)));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedTransactionTemplate(shards, executor,
+                recoveryLog, new TransactionMetrics(new SimpleMeterRegistry()), "x".repeat(28), Isolation.DEFAULT, 50,
+                Duration.ofMillis(10), Duration.ofMillis(40)));
+    }
+
+    @Test
+    void recoveryLogTracksPendingCommits() throws Exception {
+        recoveryLog.commit("tx1");
+        recoveryLog.commit("tx2");
+        recoveryLog.done("tx1");
+        assertEquals(Set.of("tx2"), recoveryLog.pendingCommits());
+        recoveryLog.reset();
+        assertTrue(recoveryLog.pendingCommits().isEmpty());
+    }
+
+    /**
+     * 分片的前times次XA提交失败，返回剩余失败次数
+     */
+    private AtomicInteger failCommits(String name, int times) {
+        AtomicInteger failures = new AtomicInteger(times);
+        XADataSource dataSource = shards.get(name);
+        shards.put(name, (XADataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{XADataSource.class}, (proxy, method, args) -> {
+                    Object result = invoke(dataSource, method, args);
+                    if (!(result instanceof XAConnection xaConnection)) {
+                        return result;
+                    }
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{XAConnection.class},
+                            (connectionProxy, connectionMethod, connectionArgs) -> {
+                                Object resource = invoke(xaConnection, connectionMethod, connectionArgs);
+                                if (!(resource instanceof XAResource xaResource)) {
+                                    return resource;
+                                }
+                                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{XAResource.class},
+                                        (resourceProxy, resourceMethod, resourceArgs) -> {
+                                            if ("commit".equals(resourceMethod.getName())
+                                                    && failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                                                throw new XAException(XAException.XAER_RMFAIL);
+                                            }
+                                            return invoke(xaResource, resourceMethod, resourceArgs);
+                                        });
+                            });
+                }));
+        template.close();
+        template = new ShardedTransactionTemplate(shards, executor, recoveryLog,
+                new TransactionMetrics(new SimpleMeterRegistry()), "node1", Isolation.READ_COMMITTED, 50,
+                Duration.ofMillis(10), Duration.ofMillis(40));
+        return failures;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private XAConnection prepare(Xid xid, int id) throws Exception {
+        XAConnection xaConnection = databases.get("shard0").getXAConnection();
+        XAResource resource = xaConnection.getXAResource();
+        resource.start(xid, XAResource.TMNOFLAGS);
+        try (Statement statement = xaConnection.getConnection().createStatement()) {
+            statement.executeUpdate("INSERT INTO t_item (id) VALUES (" + id + ")");
+        }
+        resource.end(xid, XAResource.TMSUCCESS);
+        resource.prepare(xid);
+        return xaConnection;
+    }
+
+    private List<Xid> inDoubt() throws Exception {
+        XAConnection xaConnection = databases.get("shard0").getXAConnection();
+        try {
+            return List.of(xaConnection.getXAResource().recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN));
+        } finally {
+            xaConnection.close();
+        }
+    }
+
+    private List<Integer> ids(int shard) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection connection = databases.get("shard" + shard).getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id FROM t_item")) {
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static class ItemCallback implements ShardCallback<Integer> {
+
+        @Override
+        public Object shardKey(Integer row) {
+            return row;
+        }
+
+        @Override
+        public int write(Connection connection, List<Integer> chunk) throws SQLException {
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO t_item (id) VALUES (?)")) {
+                for (Integer id : chunk) {
+                    statement.setInt(1, id);
+                    statement.addBatch();
+                }
+                return BatchResults.count(statement.executeBatch());
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.apache.ibatis.session.SqlSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.annotation.Isolation;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author luckykuang
+ * @date 2023/12/5 11:30
+ */
+class TransactionGroupTest {
+
+    @Test
+    void commitFailureAfterFirstCommitIsPartial() throws Exception {
+        TransactionGroup group = new TransactionGroup(Isolation.DEFAULT);
+        Connection first = mock(Connection.class);
+        Connection second = mock(Connection.class);
+        Connection third = mock(Connection.class);
+        doThrow(new SQLException("连接断开")).when(second).commit();
+        group.join(session(first));
+        group.join(session(second));
+        group.join(session(third));
+
+        group.complete();
+
+        assertTrue(group.isFailed());
+        assertTrue(group.isPartiallyCommitted());
+        verify(first).commit();
+        verify(second).rollback();
+        verify(third, never()).commit();
+        verify(third).rollback();
+    }
+
+    @Test
+    void commitFailureOnFirstConnectionRollsBackAll() throws Exception {
+        TransactionGroup group = new TransactionGroup(Isolation.DEFAULT);
+        Connection first = mock(Connection.class);
+        Connection second = mock(Connection.class);
+        doThrow(new SQLException("连接断开")).when(first).commit();
+        group.join(session(first));
+        group.join(session(second));
+
+        group.complete();
+
+        assertTrue(group.isFailed());
+        assertFalse(group.isPartiallyCommitted());
+        verify(second, never()).commit();
+        verify(second).rollback();
+    }
+
+    private static SqlSession session(Connection connection) {
+        SqlSession sqlSession = mock(SqlSession.class);
+        when(sqlSession.getConnection()).thenReturn(connection);
+        return sqlSession;
+    }
+}
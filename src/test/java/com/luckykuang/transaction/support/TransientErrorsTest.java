@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.luckykuang.transaction.support;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author luckykuang
+ * @date 2023/11/28 10:30
+ */
+class TransientErrorsTest {
+
+    @Test
+    void lockWaitTimeoutRetriesStatement() {
+        // 驱动对锁等待超时同样抛出40001
+        SQLException e = new SQLTransactionRollbackException("Lock wait timeout exceeded", "40001", 1205);
+        assertEquals(TransientErrors.Scope.STATEMENT, TransientErrors.classify(new PersistenceException(e)));
+    }
+
+    @Test
+    void deadlockRetriesTransaction() {
+        SQLException e = new SQLTransactionRollbackException("Deadlock found", "40001", 1213);
+        assertEquals(TransientErrors.Scope.TRANSACTION, TransientErrors.classify(new PersistenceException(e)));
+    }
+
+    @Test
+    void permanentErrorsAreNotRetried() {
+        assertEquals(TransientErrors.Scope.NONE,
+                TransientErrors.classify(new SQLIntegrityConstraintViolationException("Duplicate entry", "23000", 1062)));
+        assertEquals(TransientErrors.Scope.NONE,
+                TransientErrors.classify(new SQLTransientConnectionException("Communications link failure", "08S01")));
+        assertEquals(TransientErrors.Scope.NONE, TransientErrors.classify(new IllegalStateException()));
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+CREATE TABLE IF NOT EXISTS `t_user`  (
+    `id` int NOT NULL AUTO_INCREMENT,
+    `name` varchar(255) DEFAULT NULL,
+    `age` int DEFAULT NULL,
+    `gender` varchar(255) DEFAULT NULL,
+    PRIMARY KEY (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `t_sequence`  (
+    `name` varchar(64) NOT NULL,
+    `next_value` bigint NOT NULL,
+    PRIMARY KEY (`name`)
+);
\ No newline at end of file